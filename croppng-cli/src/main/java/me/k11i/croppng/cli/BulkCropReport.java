@@ -0,0 +1,84 @@
+package me.k11i.croppng.cli;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects throughput figures and per-entry errors of {@link BulkCropper#run(List)}.
+ */
+final class BulkCropReport {
+    static final class Failure {
+        final ManifestEntry entry;
+        final String message;
+
+        Failure(ManifestEntry entry, String message) {
+            this.entry = entry;
+            this.message = message;
+        }
+    }
+
+    private final int numEntries;
+    private final int numSources;
+    private final long startNanos;
+    private final AtomicLong numSucceeded = new AtomicLong();
+    private final AtomicLong numSourceBytes = new AtomicLong();
+    private final AtomicLong numOutputBytes = new AtomicLong();
+    private final ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+    private long elapsedNanos;
+
+    BulkCropReport(int numEntries, int numSources) {
+        this.numEntries = numEntries;
+        this.numSources = numSources;
+        this.startNanos = System.nanoTime();
+    }
+
+    void sourceRead(long numBytes) {
+        numSourceBytes.addAndGet(numBytes);
+    }
+
+    void succeeded(long numBytes) {
+        numSucceeded.incrementAndGet();
+        numOutputBytes.addAndGet(numBytes);
+    }
+
+    void failed(ManifestEntry entry, String message) {
+        failures.add(new Failure(entry, message));
+    }
+
+    void finish() {
+        elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    List<Failure> failures() {
+        List<Failure> result = new ArrayList<>(failures);
+        result.sort(Comparator.comparingInt(f -> f.entry.lineNumber));
+        return result;
+    }
+
+    boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    void print(PrintStream out) {
+        double seconds = Math.max(elapsedNanos, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        out.printf("Entries:    %d (%d sources)%n", numEntries, numSources);
+        out.printf("Succeeded:  %d%n", numSucceeded.get());
+        out.printf("Failed:     %d%n", failures.size());
+        out.printf("Elapsed:    %.3f s%n", seconds);
+        out.printf("Throughput: %.1f crops/s, read %.1f MB/s, written %.1f MB/s%n",
+                numSucceeded.get() / seconds,
+                numSourceBytes.get() / seconds / 1e6,
+                numOutputBytes.get() / seconds / 1e6);
+
+        for (Failure failure : failures()) {
+            out.printf("ERROR line %d: %s -> %s: %s%n",
+                    failure.entry.lineNumber, failure.entry.source, failure.entry.output, failure.message);
+        }
+    }
+}
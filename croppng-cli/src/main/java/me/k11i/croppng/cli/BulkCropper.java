@@ -0,0 +1,213 @@
+package me.k11i.croppng.cli;
+
+import me.k11i.croppng.CropPng;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Crops the entries of a manifest on a worker pool.
+ * <p>
+ * Entries are grouped by source so that each source file is read only once.
+ * The entries of a source are split into up to {@code numThreads} chunks that run on different workers sharing the read bytes,
+ * so that a manifest of a single large sprite sheet also uses every worker.
+ * Each worker thread uses its own {@link CropPng} instance (see {@link CropPng#compressionLevel(int)}),
+ * and the total size of source images held in memory at once is bounded by {@code maxInFlightBytes}.
+ * </p>
+ */
+final class BulkCropper {
+    private static final int PERMIT_UNIT_BYTES = 1024;
+
+    /**
+     * Source image shared by the chunks of its entries, which is read by the first chunk and released by the last one.
+     */
+    private final class SharedSource {
+        private final Path path;
+        private final BulkCropReport report;
+
+        // The followings are guarded by this.
+        private int numPendingChunks;
+        private byte[] bytes;
+        private IOException error;
+        private int permits;
+
+        SharedSource(Path path, int numChunks, BulkCropReport report) {
+            this.path = path;
+            this.numPendingChunks = numChunks;
+            this.report = report;
+        }
+
+        /**
+         * Returns the bytes of the source, reading them if this is the first chunk.
+         */
+        synchronized byte[] get() throws IOException, InterruptedException {
+            if (bytes == null && error == null) {
+                try {
+                    permits = permitsFor(Files.size(path));
+                    inFlight.acquire(permits);
+                } catch (IOException e) {
+                    error = e;
+                    throw e;
+                }
+
+                try {
+                    bytes = Files.readAllBytes(path);
+                } catch (IOException e) {
+                    error = e;
+                    inFlight.release(permits);
+                    permits = 0;
+                    throw e;
+                }
+                report.sourceRead(bytes.length);
+            }
+
+            if (error != null) {
+                throw error;
+            }
+            return bytes;
+        }
+
+        /**
+         * Called when a chunk finishes, which releases the bytes after the last chunk.
+         */
+        synchronized void chunkFinished() {
+            if (--numPendingChunks == 0) {
+                bytes = null;
+                inFlight.release(permits);
+                permits = 0;
+            }
+        }
+    }
+
+    private final int numThreads;
+    private final int compressionLevel;
+    private final int maxInFlightPermits;
+    private final Semaphore inFlight;
+
+    BulkCropper(int numThreads, int compressionLevel, long maxInFlightBytes) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be greater than or equal to 1 but " + numThreads);
+        }
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("level must be between 0 and 9 but " + compressionLevel);
+        }
+        if (maxInFlightBytes < PERMIT_UNIT_BYTES) {
+            throw new IllegalArgumentException("maxInFlightBytes must be greater than or equal to " + PERMIT_UNIT_BYTES + " but " + maxInFlightBytes);
+        }
+
+        this.numThreads = numThreads;
+        this.compressionLevel = compressionLevel;
+        this.maxInFlightPermits = (int) Math.min(Integer.MAX_VALUE, maxInFlightBytes / PERMIT_UNIT_BYTES);
+        this.inFlight = new Semaphore(maxInFlightPermits);
+    }
+
+    BulkCropReport run(List<ManifestEntry> entries) throws InterruptedException {
+        Map<Path, List<ManifestEntry>> groups = Manifest.groupBySource(entries);
+        BulkCropReport report = new BulkCropReport(entries.size(), groups.size());
+
+        // The queue of the pool is FIFO, so the chunks of a source whose bytes are held are never queued behind a chunk
+        // that is waiting for the permits, which would otherwise deadlock.
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Map.Entry<Path, List<ManifestEntry>> group : groups.entrySet()) {
+                List<List<ManifestEntry>> chunks = split(group.getValue(), numThreads);
+                SharedSource source = new SharedSource(group.getKey(), chunks.size(), report);
+                for (List<ManifestEntry> chunk : chunks) {
+                    futures.add(executor.submit(() -> processChunk(source, chunk, report)));
+                }
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // processChunk() records every failure in the report, so this should not happen.
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        report.finish();
+        return report;
+    }
+
+    /**
+     * Splits {@code entries} into up to {@code numChunks} chunks of almost the same size.
+     */
+    static List<List<ManifestEntry>> split(List<ManifestEntry> entries, int numChunks) {
+        int n = Math.min(numChunks, entries.size());
+        List<List<ManifestEntry>> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(entries.subList(entries.size() * i / n, entries.size() * (i + 1) / n));
+        }
+        return result;
+    }
+
+    private void processChunk(SharedSource source, List<ManifestEntry> entries, BulkCropReport report) {
+        try {
+            byte[] src;
+            try {
+                src = source.get();
+            } catch (IOException e) {
+                entries.forEach(entry -> report.failed(entry, "Cannot read source: " + e));
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                entries.forEach(entry -> report.failed(entry, "Interrupted"));
+                return;
+            }
+
+            CropPng cropPng = CropPng.compressionLevel(compressionLevel);
+            for (ManifestEntry entry : entries) {
+                try {
+                    ByteBuffer result = cropPng.crop(src, entry.x, entry.y, entry.width, entry.height, entry.scaleFactor);
+                    int numBytes = result.remaining();
+                    write(entry.output, result);
+                    report.succeeded(numBytes);
+
+                } catch (IOException | RuntimeException e) {
+                    report.failed(entry, e.toString());
+                }
+            }
+
+        } finally {
+            source.chunkFinished();
+        }
+    }
+
+    private int permitsFor(long numBytes) {
+        long permits = (numBytes + PERMIT_UNIT_BYTES - 1) / PERMIT_UNIT_BYTES;
+        // A source larger than the limit is still processed, but alone.
+        return (int) Math.max(1, Math.min(permits, maxInFlightPermits));
+    }
+
+    private static void write(Path output, ByteBuffer buf) throws IOException {
+        Path parent = output.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        try (FileChannel ch = FileChannel.open(output,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package me.k11i.croppng.cli;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Command-line entry point that crops every entry of a manifest.
+ *
+ * <pre>
+ * croppng-cli [--threads N] [--level L] [--max-in-flight-mb M] manifest.csv
+ * </pre>
+ *
+ * @see Manifest
+ */
+public final class CropPngCli {
+    private static final String USAGE = "Usage: croppng-cli [--threads N] [--level L] [--max-in-flight-mb M] manifest.csv";
+
+    private CropPngCli() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        int level = 6;
+        long maxInFlightMegaBytes = 256;
+        Path manifest = null;
+        List<ManifestEntry> entries;
+        BulkCropper cropper;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--threads":
+                        numThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--level":
+                        level = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-in-flight-mb":
+                        maxInFlightMegaBytes = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        if (manifest != null || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+                        }
+                        manifest = Path.of(args[i]);
+                }
+            }
+            if (manifest == null) {
+                throw new IllegalArgumentException("Manifest is not specified");
+            }
+
+            cropper = new BulkCropper(numThreads, level, maxInFlightMegaBytes * 1024 * 1024);
+            entries = Manifest.parse(manifest);
+
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.err.println("Missing option value");
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+
+        } catch (IOException e) {
+            // A manifest that is missing or unreadable is an invalid argument as well.
+            System.err.println("Cannot read manifest: " + e);
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        BulkCropReport report = cropper.run(entries);
+        report.print(System.out);
+
+        if (report.hasFailures()) {
+            System.exit(1);
+        }
+    }
+}
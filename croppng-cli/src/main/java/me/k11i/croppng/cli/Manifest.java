@@ -0,0 +1,100 @@
+package me.k11i.croppng.cli;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses a CSV manifest of crop instructions.
+ *
+ * <p>
+ * Each line consists of 7 comma-separated columns:
+ * </p>
+ *
+ * <pre>
+ * source,x,y,width,height,scale,output
+ * </pre>
+ *
+ * <p>
+ * Empty lines, lines beginning with {@code #} and a header line beginning with {@code source,} are ignored.
+ * Relative paths are resolved against the directory that contains the manifest.
+ * Each output must appear only once, since the entries are written concurrently.
+ * </p>
+ */
+final class Manifest {
+    private static final int NUM_COLUMNS = 7;
+
+    private Manifest() {
+    }
+
+    static List<ManifestEntry> parse(Path manifest) throws IOException {
+        Path baseDir = manifest.toAbsolutePath().getParent();
+        List<ManifestEntry> result = new ArrayList<>();
+        Map<Path, Integer> outputLineNumbers = new HashMap<>();
+
+        try (BufferedReader in = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("source,")) {
+                    continue;
+                }
+
+                ManifestEntry entry = parseLine(baseDir, lineNumber, line);
+                Integer previous = outputLineNumbers.putIfAbsent(entry.output, lineNumber);
+                if (previous != null) {
+                    throw new IllegalArgumentException(
+                            String.format("Line %d: output %s is also written by line %d", lineNumber, entry.output, previous));
+                }
+                result.add(entry);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Groups entries by their source file, preserving the order of first appearance.
+     */
+    static Map<Path, List<ManifestEntry>> groupBySource(List<ManifestEntry> entries) {
+        Map<Path, List<ManifestEntry>> result = new LinkedHashMap<>();
+        for (ManifestEntry entry : entries) {
+            result.computeIfAbsent(entry.source, ignore -> new ArrayList<>()).add(entry);
+        }
+        return result;
+    }
+
+    private static ManifestEntry parseLine(Path baseDir, int lineNumber, String line) {
+        String[] columns = line.split(",", -1);
+        if (columns.length != NUM_COLUMNS) {
+            throw new IllegalArgumentException(
+                    String.format("Line %d: expected %d columns but %d", lineNumber, NUM_COLUMNS, columns.length));
+        }
+
+        try {
+            return new ManifestEntry(
+                    lineNumber,
+                    baseDir.resolve(columns[0].trim()).normalize(),
+                    Integer.parseInt(columns[1].trim()),
+                    Integer.parseInt(columns[2].trim()),
+                    Integer.parseInt(columns[3].trim()),
+                    Integer.parseInt(columns[4].trim()),
+                    Integer.parseInt(columns[5].trim()),
+                    baseDir.resolve(columns[6].trim()).normalize());
+
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Line %d: %s", lineNumber, e.getMessage()), e);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package me.k11i.croppng.cli;
+
+import java.nio.file.Path;
+
+/**
+ * A crop instruction read from a line of the manifest.
+ */
+final class ManifestEntry {
+    final int lineNumber;
+    final Path source;
+    final int x;
+    final int y;
+    final int width;
+    final int height;
+    final int scaleFactor;
+    final Path output;
+
+    ManifestEntry(int lineNumber, Path source, int x, int y, int width, int height, int scaleFactor, Path output) {
+        this.lineNumber = lineNumber;
+        this.source = source;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.scaleFactor = scaleFactor;
+        this.output = output;
+    }
+
+    @Override
+    public String toString() {
+        return "ManifestEntry{" +
+                "lineNumber=" + lineNumber +
+                ", source=" + source +
+                ", x=" + x +
+                ", y=" + y +
+                ", width=" + width +
+                ", height=" + height +
+                ", scaleFactor=" + scaleFactor +
+                ", output=" + output +
+                '}';
+    }
+}
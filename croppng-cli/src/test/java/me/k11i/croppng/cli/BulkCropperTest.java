@@ -0,0 +1,112 @@
+package me.k11i.croppng.cli;
+
+import me.k11i.croppng.CropPng;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BulkCropperTest {
+    private static byte[] loadImage(String name) throws IOException {
+        try (InputStream in = ClassLoader.getSystemResourceAsStream("images/" + name)) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void testRun(@TempDir Path dir) throws IOException, InterruptedException {
+        var social = loadImage("social-f4.png");
+        var tile = loadImage("tile-f1.png");
+        Files.write(dir.resolve("social.png"), social);
+        Files.write(dir.resolve("tile.png"), tile);
+        Files.write(dir.resolve("broken.png"), Arrays.copyOf(tile, 100));
+
+        var lines = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            lines.add(String.format("social.png,%d,%d,32,32,2,out/social-%d.png", i * 8, i * 4, i));
+            lines.add(String.format("tile.png,%d,%d,16,16,1,out/tile-%d.png", i * 4, i * 8, i));
+        }
+        lines.add("missing.png,0,0,8,8,1,out/missing.png");
+        lines.add("broken.png,0,0,8,8,1,out/broken.png");
+        lines.add("tile.png,250,0,8,8,1,out/out-of-bounds.png");
+        var entries = Manifest.parse(Files.write(dir.resolve("manifest.csv"), lines));
+
+        var sut = new BulkCropper(3, 1, 1024 * 1024);
+        var report = sut.run(entries);
+
+        var cropPng = new CropPng(1);
+        for (int i = 0; i < 20; i++) {
+            assertThat(Files.readAllBytes(dir.resolve("out/social-" + i + ".png")))
+                    .containsExactly(toBytes(cropPng.crop(social, i * 8, i * 4, 32, 32, 2)));
+            assertThat(Files.readAllBytes(dir.resolve("out/tile-" + i + ".png")))
+                    .containsExactly(toBytes(cropPng.crop(tile, i * 4, i * 8, 16, 16, 1)));
+        }
+
+        // Failures are reported per entry in the order of lines, and do not stop the other entries.
+        assertThat(report.hasFailures()).isTrue();
+        var failures = report.failures();
+        assertThat(failures.stream().map(f -> f.entry.lineNumber).collect(Collectors.toList()))
+                .containsExactly(List.of(41, 42, 43));
+        assertThat(failures.get(0).message).contains("Cannot read source").contains("NoSuchFileException");
+        assertThat(failures.get(1).message).contains("IllegalArgumentException");
+        assertThat(failures.get(2).message).contains("IllegalArgumentException");
+        assertThat(Files.exists(dir.resolve("out/missing.png"))).isFalse();
+        assertThat(Files.exists(dir.resolve("out/out-of-bounds.png"))).isFalse();
+    }
+
+    @Test
+    void testRunWithSmallInFlightLimit(@TempDir Path dir) throws IOException, InterruptedException {
+        // Every source exceeds the limit, so the sources are processed one at a time while their entries are split among the workers.
+        var lines = new ArrayList<String>();
+        for (var name : List.of("social-f0.png", "social-f2.png", "tile-f3.png")) {
+            Files.write(dir.resolve(name), loadImage(name));
+            for (int i = 0; i < 10; i++) {
+                lines.add(String.format("%s,%d,0,8,8,1,out/%s-%d.png", name, i, name, i));
+            }
+        }
+
+        var sut = new BulkCropper(4, 6, 1024);
+        var report = sut.run(Manifest.parse(Files.write(dir.resolve("manifest.csv"), lines)));
+
+        assertThat(report.hasFailures()).isFalse();
+        try (var files = Files.list(dir.resolve("out"))) {
+            assertThat(files.count()).isEqualTo(30L);
+        }
+    }
+
+    @Test
+    void testSplit() {
+        var entries = new ArrayList<ManifestEntry>();
+        for (int i = 1; i <= 10; i++) {
+            entries.add(new ManifestEntry(i, Path.of("a.png"), 0, 0, 1, 1, 1, Path.of(i + ".png")));
+        }
+
+        var chunks = BulkCropper.split(entries, 4);
+        assertThat(chunks.stream().map(List::size).collect(Collectors.toList())).containsExactly(List.of(2, 3, 2, 3));
+        assertThat(chunks.stream().flatMap(List::stream).collect(Collectors.toList())).containsExactly(entries);
+
+        assertThat(BulkCropper.split(entries.subList(0, 2), 4)).hasSize(2);
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThatThrownBy(() -> new BulkCropper(0, 6, 1024)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new BulkCropper(1, 10, 1024)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new BulkCropper(1, 6, 1023)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static byte[] toBytes(ByteBuffer buf) {
+        return Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.limit());
+    }
+}
@@ -0,0 +1,104 @@
+package me.k11i.croppng.cli;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ManifestTest {
+    private static Path write(Path dir, String... lines) throws IOException {
+        return Files.write(dir.resolve("manifest.csv"), List.of(lines));
+    }
+
+    @Test
+    void testParse(@TempDir Path dir) throws IOException {
+        var manifest = write(dir,
+                "source,x,y,width,height,scale,output",
+                "# comment",
+                "",
+                "images/a.png, 1, 2, 3, 4, 5, out/a-1.png",
+                "../b.png,0,0,8,8,1,/tmp/b.png");
+
+        var sut = Manifest.parse(manifest);
+
+        assertThat(sut).hasSize(2);
+        var baseDir = dir.toAbsolutePath();
+
+        var first = sut.get(0);
+        assertThat(first.lineNumber).isEqualTo(4);
+        assertThat(first.source).isEqualTo(baseDir.resolve("images/a.png"));
+        assertThat(first.x).isEqualTo(1);
+        assertThat(first.y).isEqualTo(2);
+        assertThat(first.width).isEqualTo(3);
+        assertThat(first.height).isEqualTo(4);
+        assertThat(first.scaleFactor).isEqualTo(5);
+        assertThat(first.output).isEqualTo(baseDir.resolve("out/a-1.png"));
+
+        var second = sut.get(1);
+        assertThat(second.lineNumber).isEqualTo(5);
+        assertThat(second.source).isEqualTo(baseDir.getParent().resolve("b.png"));
+        assertThat(second.output).isEqualTo(Path.of("/tmp/b.png"));
+    }
+
+    @Test
+    void testMalformedLines(@TempDir Path dir) throws IOException {
+        var tooFewColumns = write(dir, "a.png,0,0,8,8,1");
+        assertThatThrownBy(() -> Manifest.parse(tooFewColumns))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Line 1: expected 7 columns but 6");
+
+        var tooManyColumns = write(dir, "a.png,0,0,8,8,1,a-out.png", "b.png,0,0,8,8,1,b-out.png,");
+        assertThatThrownBy(() -> Manifest.parse(tooManyColumns))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Line 2: expected 7 columns but 8");
+
+        var notInteger = write(dir, "a.png,0,zero,8,8,1,out.png");
+        assertThatThrownBy(() -> Manifest.parse(notInteger))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Line 1:");
+    }
+
+    @Test
+    void testDuplicateOutputs(@TempDir Path dir) throws IOException {
+        var manifest = write(dir,
+                "a.png,0,0,8,8,1,out/1.png",
+                "b.png,8,0,8,8,1,out/2.png",
+                "b.png,0,8,8,8,1,out/../out/1.png");
+
+        assertThatThrownBy(() -> Manifest.parse(manifest))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Line 3: output")
+                .hasMessageContaining("line 1");
+    }
+
+    @Test
+    void testGroupBySource(@TempDir Path dir) throws IOException {
+        var manifest = write(dir,
+                "b.png,0,0,8,8,1,out/1.png",
+                "a.png,0,0,8,8,1,out/2.png",
+                "./b.png,8,0,8,8,1,out/3.png",
+                "a.png,8,0,8,8,1,out/4.png",
+                "c.png,0,0,8,8,1,out/5.png");
+
+        var sut = Manifest.groupBySource(Manifest.parse(manifest));
+
+        // Sources are in the order of first appearance, and the entries of each source are in the order of lines.
+        var baseDir = dir.toAbsolutePath();
+        assertThat(List.copyOf(sut.keySet()))
+                .containsExactly(List.of(baseDir.resolve("b.png"), baseDir.resolve("a.png"), baseDir.resolve("c.png")));
+        assertThat(lineNumbers(sut.get(baseDir.resolve("b.png")))).containsExactly(List.of(1, 3));
+        assertThat(lineNumbers(sut.get(baseDir.resolve("a.png")))).containsExactly(List.of(2, 4));
+        assertThat(lineNumbers(sut.get(baseDir.resolve("c.png")))).containsExactly(List.of(5));
+    }
+
+    private static List<Integer> lineNumbers(List<ManifestEntry> entries) {
+        return entries.stream().map(e -> e.lineNumber).collect(Collectors.toList());
+    }
+}
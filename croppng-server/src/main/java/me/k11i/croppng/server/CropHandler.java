@@ -0,0 +1,234 @@
+package me.k11i.croppng.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import me.k11i.croppng.CancellationToken;
+import me.k11i.croppng.CropCancelledException;
+import me.k11i.croppng.CropCost;
+import me.k11i.croppng.CropLimits;
+import me.k11i.croppng.CropPng;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves {@code GET /crop?src=&x=&y=&w=&h=&scale=&level=}, which crops the PNG image {@code src} in the source directory.
+ * <p>
+ * {@code scale} and {@code level} default to 1 and 6 respectively.
+ * Each request is cropped on the calling thread with its own {@link CropPng} instance (see {@link CropPng#compressionLevel(int)}),
+ * after its estimated cost is checked against {@link CropLimits}.
+ * The source file is read into memory and the output is written directly from the buffer returned by {@link CropPng},
+ * with a fixed {@code Content-Length}, rather than streamed, because the limits and the deadline apply to byte arrays.
+ * </p>
+ * <p>
+ * Failures other than bad requests, such as an unreadable source file or a corrupt PNG image, are answered with 500.
+ * </p>
+ * <p>
+ * The ETag is derived from the crop parameters and the size and last modified time of the source file,
+ * so that a conditional request whose {@code If-None-Match} matches is answered with 304 without reading the source.
+ * </p>
+ */
+final class CropHandler implements HttpHandler {
+    private final Path sourceDir;
+    private final CropLimits limits;
+    private final String cacheControl;
+    private final Duration timeout;
+
+    /**
+     * @param timeout time limit of cropping per request, or {@link Duration#ZERO} for no limit.
+     */
+    CropHandler(Path sourceDir, CropLimits limits, long maxAgeSeconds, Duration timeout) {
+        this.sourceDir = sourceDir.toAbsolutePath().normalize();
+        this.limits = limits;
+        this.cacheControl = "public, max-age=" + maxAgeSeconds;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            handle0(exchange);
+
+        } catch (IOException | RuntimeException e) {
+            // Failures after the response headers have been sent (e.g. the client has gone away) cannot be reported to the client.
+            if (exchange.getResponseCode() >= 0) {
+                throw e;
+            }
+            System.err.printf("Failed to crop %s: %s%n", exchange.getRequestURI(), e);
+            sendError(exchange, 500, "Internal server error");
+
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handle0(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "GET");
+            sendError(exchange, 405, "Method not allowed");
+            return;
+        }
+
+        CropRequest request;
+        try {
+            request = CropRequest.parse(parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+            return;
+        }
+
+        Path source;
+        try {
+            source = resolveSource(request.src);
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+            return;
+        }
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            sendError(exchange, 404, "Source not found: " + request.src);
+            return;
+        }
+        if (!attributes.isRegularFile()) {
+            sendError(exchange, 404, "Source not found: " + request.src);
+            return;
+        }
+
+        String etag = etag(request, attributes);
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        headers.set("Cache-Control", cacheControl);
+
+        if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        byte[] src = Files.readAllBytes(source);
+        ByteBuffer result;
+        try {
+            result = crop(src, request);
+        } catch (CropCancelledException e) {
+            sendError(exchange, 503, e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            // Includes CropLimitExceededException.
+            sendError(exchange, 400, e.getMessage());
+            return;
+        }
+
+        headers.set("Content-Type", "image/png");
+        exchange.sendResponseHeaders(200, result.remaining());
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(result.array(), result.arrayOffset() + result.position(), result.remaining());
+        }
+    }
+
+    /**
+     * Returns the path of {@code src} in the source directory.
+     *
+     * @throws IllegalArgumentException if {@code src} is not a valid path or points outside of the source directory.
+     */
+    Path resolveSource(String src) {
+        // InvalidPathException is an IllegalArgumentException.
+        Path result = sourceDir.resolve(src).normalize();
+        if (!result.startsWith(sourceDir)) {
+            throw new IllegalArgumentException("src must be within the source directory");
+        }
+        return result;
+    }
+
+    private ByteBuffer crop(byte[] src, CropRequest r) {
+        CropPng cropPng = CropPng.compressionLevel(r.level);
+
+        CropCost cost = cropPng.estimate(src, r.x, r.y, r.width, r.height, r.scaleFactor);
+        if (!limits.allows(cost)) {
+            throw new IllegalArgumentException("Crop exceeds the limits: " + cost);
+        }
+
+        if (timeout.isZero()) {
+            return cropPng.crop(src, r.x, r.y, r.width, r.height, r.scaleFactor);
+        }
+        return cropPng.crop(src, r.x, r.y, r.width, r.height, r.scaleFactor, CancellationToken.withTimeout(timeout));
+    }
+
+    private static String etag(CropRequest r, BasicFileAttributes attributes) {
+        String key = String.join(",", r.src,
+                Long.toString(attributes.size()), Long.toString(attributes.lastModifiedTime().toMillis()),
+                Integer.toString(r.x), Integer.toString(r.y), Integer.toString(r.width), Integer.toString(r.height),
+                Integer.toString(r.scaleFactor), Integer.toString(r.level));
+
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < 16; i++) {
+            sb.append(Character.forDigit((digest[i] >>> 4) & 0xf, 16))
+                    .append(Character.forDigit(digest[i] & 0xf, 16));
+        }
+        return sb.append('"').toString();
+    }
+
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> result = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return result;
+        }
+
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            result.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.getResponseHeaders().remove("ETag");
+        exchange.getResponseHeaders().remove("Cache-Control");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
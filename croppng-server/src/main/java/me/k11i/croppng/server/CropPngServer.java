@@ -0,0 +1,120 @@
+package me.k11i.croppng.server;
+
+import com.sun.net.httpserver.HttpServer;
+import me.k11i.croppng.CropLimits;
+import me.k11i.croppng.CropPng;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP server that crops PNG images in a local directory, which serves as a reference of serving crops
+ * under concurrency (see {@link CropHandler} for the endpoint).
+ *
+ * <pre>
+ * croppng-server [--port P] [--threads N] [--max-age S] [--timeout-ms T] [--max-pixels M] [--max-inflated-mb I] source-dir
+ * </pre>
+ *
+ * @see LoadGenerator
+ */
+public final class CropPngServer {
+    private static final String USAGE =
+            "Usage: croppng-server [--port P] [--threads N] [--max-age S] [--timeout-ms T] [--max-pixels M] [--max-inflated-mb I] source-dir";
+
+    private CropPngServer() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        long maxAgeSeconds = 86400;
+        long timeoutMillis = 0;
+        long maxPixels = 16L * 1024 * 1024;
+        long maxInflatedMegaBytes = 256;
+        Path sourceDir = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--threads":
+                        numThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-age":
+                        maxAgeSeconds = Long.parseLong(args[++i]);
+                        break;
+                    case "--timeout-ms":
+                        timeoutMillis = Long.parseLong(args[++i]);
+                        break;
+                    case "--max-pixels":
+                        maxPixels = Long.parseLong(args[++i]);
+                        break;
+                    case "--max-inflated-mb":
+                        maxInflatedMegaBytes = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        if (sourceDir != null || args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+                        }
+                        sourceDir = Path.of(args[i]);
+                }
+            }
+            if (sourceDir == null) {
+                throw new IllegalArgumentException("Source directory is not specified");
+            }
+            if (!Files.isDirectory(sourceDir)) {
+                throw new IllegalArgumentException("Not a directory: " + sourceDir);
+            }
+            if (numThreads < 1 || maxPixels < 1 || maxInflatedMegaBytes < 1) {
+                throw new IllegalArgumentException("--threads, --max-pixels and --max-inflated-mb must be greater than 0");
+            }
+            if (maxAgeSeconds < 0 || timeoutMillis < 0) {
+                throw new IllegalArgumentException("--max-age and --timeout-ms must not be negative");
+            }
+
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.err.println("Missing option value");
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        CropLimits limits = new CropLimits(maxPixels, maxInflatedMegaBytes * 1024 * 1024, Long.MAX_VALUE);
+        CropHandler handler = new CropHandler(sourceDir, limits, maxAgeSeconds, Duration.ofMillis(timeoutMillis));
+
+        start(port, numThreads, handler);
+        System.out.printf("Serving %s on http://localhost:%d/crop with %d threads%n", sourceDir.toAbsolutePath(), port, numThreads);
+    }
+
+    static HttpServer start(int port, int numThreads, CropHandler handler) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread t = new Thread(r);
+            t.setName("croppng-server-" + t.getId());
+            return t;
+        });
+
+        // Initializes the per-thread instances before the first request.
+        for (int i = 0; i < numThreads; i++) {
+            executor.execute(CropPng::warmUp);
+        }
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/crop", handler);
+        server.setExecutor(executor);
+        server.start();
+        return server;
+    }
+}
@@ -0,0 +1,76 @@
+package me.k11i.croppng.server;
+
+import java.util.Map;
+
+/**
+ * Parameters of a request to {@link CropHandler}.
+ */
+final class CropRequest {
+    final String src;
+    final int x;
+    final int y;
+    final int width;
+    final int height;
+    final int scaleFactor;
+    final int level;
+
+    private CropRequest(String src, int x, int y, int width, int height, int scaleFactor, int level) {
+        this.src = src;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.scaleFactor = scaleFactor;
+        this.level = level;
+    }
+
+    /**
+     * Parses the query parameters {@code src}, {@code x}, {@code y}, {@code w}, {@code h}, {@code scale} and {@code level}.
+     *
+     * @throws IllegalArgumentException if a parameter is missing or invalid.
+     */
+    static CropRequest parse(Map<String, String> params) {
+        String src = params.get("src");
+        if (src == null || src.isEmpty()) {
+            throw new IllegalArgumentException("src is not specified");
+        }
+
+        int x = parseInt(params, "x", -1, 0);
+        int y = parseInt(params, "y", -1, 0);
+        int width = parseInt(params, "w", -1, 1);
+        int height = parseInt(params, "h", -1, 1);
+        int scaleFactor = parseInt(params, "scale", 1, 1);
+        int level = parseInt(params, "level", 6, 0);
+
+        if (level > 9) {
+            throw new IllegalArgumentException("level must be between 0 and 9 but " + level);
+        }
+
+        return new CropRequest(src, x, y, width, height, scaleFactor, level);
+    }
+
+    /**
+     * @param defaultValue value used if the parameter is absent, or {@code -1} if the parameter is required.
+     */
+    private static int parseInt(Map<String, String> params, String name, int defaultValue, int min) {
+        String value = params.get(name);
+        if (value == null) {
+            if (defaultValue < 0) {
+                throw new IllegalArgumentException(name + " is not specified");
+            }
+            return defaultValue;
+        }
+
+        int result;
+        try {
+            result = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer but " + value);
+        }
+
+        if (result < min) {
+            throw new IllegalArgumentException(name + " must be greater than or equal to " + min + " but " + result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,208 @@
+package me.k11i.croppng.server;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for {@link CropPngServer}, which sends crop requests of random rectangles at a fixed rate
+ * and reports the latency percentiles and the throughput.
+ *
+ * <pre>
+ * LoadGenerator --src NAME --size WxH [--url URL] [--rate R] [--duration S] [--warmup S] [--tile WxH] [--scale S] [--level L]
+ * </pre>
+ * <p>
+ * The requests are sent at the scheduled times regardless of whether the previous responses have arrived,
+ * as real clients do, so that the latencies grow with the queueing delay when the server is saturated.
+ * The requests sent during the warm-up period are not reported.
+ * </p>
+ */
+public final class LoadGenerator {
+    private static final String USAGE = "Usage: LoadGenerator --src NAME --size WxH [--url URL] [--rate R] [--duration S] [--warmup S]"
+            + " [--tile WxH] [--scale S] [--level L]";
+
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofSeconds(30);
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String url = "http://localhost:8080/crop";
+        double rate = 100;
+        int durationSeconds = 10;
+        int warmupSeconds = 2;
+        String src = null;
+        int[] size = null;
+        int[] tile = {64, 64};
+        int scaleFactor = 1;
+        int level = 6;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--url":
+                        url = args[++i];
+                        break;
+                    case "--rate":
+                        rate = Double.parseDouble(args[++i]);
+                        break;
+                    case "--duration":
+                        durationSeconds = Integer.parseInt(args[++i]);
+                        break;
+                    case "--warmup":
+                        warmupSeconds = Integer.parseInt(args[++i]);
+                        break;
+                    case "--src":
+                        src = args[++i];
+                        break;
+                    case "--size":
+                        size = parseSize(args[++i]);
+                        break;
+                    case "--tile":
+                        tile = parseSize(args[++i]);
+                        break;
+                    case "--scale":
+                        scaleFactor = Integer.parseInt(args[++i]);
+                        break;
+                    case "--level":
+                        level = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+                }
+            }
+            if (src == null || size == null) {
+                throw new IllegalArgumentException("--src and --size must be specified");
+            }
+            if (!(rate > 0) || durationSeconds < 1 || warmupSeconds < 0) {
+                throw new IllegalArgumentException("--rate and --duration must be greater than 0");
+            }
+            if (tile[0] > size[0] || tile[1] > size[1]) {
+                throw new IllegalArgumentException("--tile must be within --size");
+            }
+
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.err.println("Missing option value");
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        List<URI> uris = randomUris(url, src, size, tile, scaleFactor, level, new SplittableRandom(1), 4096);
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        HttpClient client = HttpClient.newBuilder()
+                .executor(executor)
+                .build();
+
+        try {
+            if (warmupSeconds > 0) {
+                System.out.printf("Warming up for %d s at %.1f req/s%n", warmupSeconds, rate);
+                run(client, uris, rate, warmupSeconds);
+            }
+
+            System.out.printf("Sending %s for %d s at %.1f req/s%n", url, durationSeconds, rate);
+            run(client, uris, rate, durationSeconds).print(System.out);
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sends requests at {@code rate} per second for {@code durationSeconds}, and waits for the responses.
+     */
+    static LoadReport run(HttpClient client, List<URI> uris, double rate, int durationSeconds) throws InterruptedException {
+        int numRequests = (int) Math.min(Integer.MAX_VALUE, (long) (rate * durationSeconds));
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        LoadReport report = new LoadReport(numRequests);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[numRequests];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < numRequests; i++) {
+            long scheduled = start + (long) (intervalNanos * i);
+            for (long now = System.nanoTime(); now < scheduled; now = System.nanoTime()) {
+                LockSupport.parkNanos(scheduled - now);
+            }
+
+            int index = i;
+            HttpRequest request = HttpRequest.newBuilder(uris.get(i % uris.size()))
+                    .timeout(RESPONSE_TIMEOUT)
+                    .build();
+            futures[i] = client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                    .whenComplete((response, e) -> {
+                        long latency = System.nanoTime() - scheduled;
+                        if (e == null && response.statusCode() == 200) {
+                            report.completed(index, latency, response.body().length);
+                        } else {
+                            report.failed(index, latency);
+                        }
+                    });
+        }
+
+        try {
+            CompletableFuture.allOf(futures)
+                    .exceptionally(e -> null)
+                    .get(RESPONSE_TIMEOUT.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // The requests that have not completed are reported as timed out.
+        }
+
+        report.finish(System.nanoTime() - start);
+        return report;
+    }
+
+    static List<URI> randomUris(String url, String src, int[] size, int[] tile, int scaleFactor, int level,
+                                SplittableRandom random, int n) {
+        String prefix = url + "?src=" + URLEncoder.encode(src, StandardCharsets.UTF_8);
+        List<URI> result = new ArrayList<>(n);
+
+        for (int i = 0; i < n; i++) {
+            int x = random.nextInt(size[0] - tile[0] + 1);
+            int y = random.nextInt(size[1] - tile[1] + 1);
+            result.add(URI.create(String.format("%s&x=%d&y=%d&w=%d&h=%d&scale=%d&level=%d",
+                    prefix, x, y, tile[0], tile[1], scaleFactor, level)));
+        }
+        return result;
+    }
+
+    private static int[] parseSize(String s) {
+        String[] parts = s.split("x");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Size must be in WxH form but " + s);
+        }
+
+        try {
+            int[] result = {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+            if (result[0] < 1 || result[1] < 1) {
+                throw new IllegalArgumentException("Size must be positive but " + s);
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Size must be in WxH form but " + s);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package me.k11i.croppng.server;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the latencies and the errors of the requests sent by {@link LoadGenerator}.
+ * <p>
+ * Each latency is measured from the time at which the request was scheduled to be sent, not from the time it was actually sent,
+ * so that the queueing delay caused by a slow server is included (no coordinated omission).
+ * </p>
+ */
+final class LoadReport {
+    private final long[] latencyNanos;
+    private final AtomicLong numCompleted = new AtomicLong();
+    private final AtomicLong numErrors = new AtomicLong();
+    private final AtomicLong numResponseBytes = new AtomicLong();
+    private long elapsedNanos;
+
+    LoadReport(int numRequests) {
+        this.latencyNanos = new long[numRequests];
+        Arrays.fill(latencyNanos, -1);
+    }
+
+    void completed(int index, long latencyNanos, long numBytes) {
+        this.latencyNanos[index] = latencyNanos;
+        numCompleted.incrementAndGet();
+        numResponseBytes.addAndGet(numBytes);
+    }
+
+    void failed(int index, long latencyNanos) {
+        this.latencyNanos[index] = latencyNanos;
+        numErrors.incrementAndGet();
+    }
+
+    void finish(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    void print(PrintStream out) {
+        // The latencies of the completed requests are visible here, since LoadGenerator has waited for their completion.
+        long[] sorted = Arrays.stream(latencyNanos).filter(v -> v >= 0).sorted().toArray();
+        double seconds = Math.max(elapsedNanos, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        out.printf("Requests:   %d (completed %d, errors %d, timed out %d)%n",
+                latencyNanos.length, numCompleted.get(), numErrors.get(), latencyNanos.length - sorted.length);
+        out.printf("Elapsed:    %.3f s%n", seconds);
+        out.printf("Throughput: %.1f req/s, %.1f MB/s%n", numCompleted.get() / seconds, numResponseBytes.get() / seconds / 1e6);
+
+        if (sorted.length == 0) {
+            return;
+        }
+        out.printf("Latency:    mean %.3f ms%n", Arrays.stream(sorted).average().orElse(0) / 1e6);
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            out.printf("            p%-5s %.3f ms%n", format(p), percentile(sorted, p) / 1e6);
+        }
+        out.printf("            max    %.3f ms%n", sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static String format(double p) {
+        return p == Math.rint(p) ? Integer.toString((int) p) : Double.toString(p);
+    }
+
+    /**
+     * Returns the {@code p}-th percentile of {@code sorted} by the nearest-rank method.
+     */
+    static long percentile(long[] sorted, double p) {
+        // The tolerance absorbs the rounding error of p / 100, e.g. 99.9 / 100 * 1000 is slightly greater than 999.
+        int rank = (int) Math.ceil(p / 100 * sorted.length - 1e-9);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+}
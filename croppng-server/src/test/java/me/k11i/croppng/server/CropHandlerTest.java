@@ -0,0 +1,69 @@
+package me.k11i.croppng.server;
+
+import me.k11i.croppng.CropLimits;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CropHandlerTest {
+    @Test
+    void testParseQuery() {
+        assertThat(CropHandler.parseQuery(null)).isEmpty();
+        assertThat(CropHandler.parseQuery("")).isEmpty();
+        assertThat(CropHandler.parseQuery("src=dir%2Fa%20b.png&x=1&y=&flag"))
+                .isEqualTo(Map.of("src", "dir/a b.png", "x", "1", "y", "", "flag", ""));
+        assertThat(CropHandler.parseQuery("src=a+b.png")).isEqualTo(Map.of("src", "a b.png"));
+    }
+
+    @Test
+    void testMatches() {
+        String etag = "\"0123abcd\"";
+
+        assertThat(CropHandler.matches(null, etag)).isFalse();
+        assertThat(CropHandler.matches("\"0123abcd\"", etag)).isTrue();
+        assertThat(CropHandler.matches("\"ffff\"", etag)).isFalse();
+        assertThat(CropHandler.matches("0123abcd", etag)).isFalse();
+
+        // Weak comparison.
+        assertThat(CropHandler.matches("W/\"0123abcd\"", etag)).isTrue();
+
+        assertThat(CropHandler.matches("*", etag)).isTrue();
+
+        assertThat(CropHandler.matches("\"ffff\", W/\"0123abcd\"", etag)).isTrue();
+        assertThat(CropHandler.matches("\"ffff\",\"eeee\"", etag)).isFalse();
+    }
+
+    @Test
+    void testResolveSource(@TempDir Path dir) {
+        var sut = new CropHandler(dir, CropLimits.unlimited(), 0, Duration.ZERO);
+        var sourceDir = dir.toAbsolutePath().normalize();
+
+        assertThat(sut.resolveSource("a.png")).isEqualTo(sourceDir.resolve("a.png"));
+        assertThat(sut.resolveSource("sub/../a.png")).isEqualTo(sourceDir.resolve("a.png"));
+        assertThat(sut.resolveSource("sub/a.png")).isEqualTo(sourceDir.resolve("sub").resolve("a.png"));
+    }
+
+    @Test
+    void testResolveSourceOutsideOfSourceDirectory(@TempDir Path dir) {
+        var sut = new CropHandler(dir.resolve("images"), CropLimits.unlimited(), 0, Duration.ZERO);
+
+        assertThatThrownBy(() -> sut.resolveSource("../x.png"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> sut.resolveSource("sub/../../x.png"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> sut.resolveSource(dir.resolve("x.png").toAbsolutePath().toString()))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        // The query parameters are decoded before they are resolved.
+        var src = CropHandler.parseQuery("src=%2e%2e%2fx.png").get("src");
+        assertThat(src).isEqualTo("../x.png");
+        assertThatThrownBy(() -> sut.resolveSource(src))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
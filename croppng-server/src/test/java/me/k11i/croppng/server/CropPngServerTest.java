@@ -0,0 +1,77 @@
+package me.k11i.croppng.server;
+
+import com.sun.net.httpserver.HttpServer;
+import me.k11i.croppng.CropLimits;
+import me.k11i.croppng.CropPng;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CropPngServerTest {
+    @Test
+    void testRoundTrip(@TempDir Path dir) throws IOException, InterruptedException {
+        byte[] src;
+        try (InputStream in = ClassLoader.getSystemResourceAsStream("images/tile-f4.png")) {
+            src = in.readAllBytes();
+        }
+        Files.write(dir.resolve("tile.png"), src);
+
+        var handler = new CropHandler(dir, CropLimits.unlimited(), 3600, Duration.ZERO);
+        HttpServer server = CropPngServer.start(0, 1, handler);
+        try {
+            var client = HttpClient.newHttpClient();
+            var base = "http://localhost:" + server.getAddress().getPort() + "/crop?src=";
+
+            var response = client.send(HttpRequest.newBuilder(URI.create(base + "tile.png&x=8&y=16&w=32&h=24&scale=2")).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            assertThat(response.statusCode()).isEqualTo(200);
+            assertThat(response.headers().firstValue("Content-Type").orElse(null)).isEqualTo("image/png");
+            assertThat(response.headers().firstValue("Cache-Control").orElse(null)).isEqualTo("public, max-age=3600");
+            assertThat(response.body()).containsExactly(toBytes(new CropPng().crop(src, 8, 16, 32, 24, 2)));
+
+            var etag = response.headers().firstValue("ETag").orElse(null);
+            assertThat(etag).isNotNull();
+
+            var notModified = client.send(HttpRequest.newBuilder(URI.create(base + "tile.png&x=8&y=16&w=32&h=24&scale=2"))
+                    .header("If-None-Match", etag)
+                    .build(), HttpResponse.BodyHandlers.ofByteArray());
+            assertThat(notModified.statusCode()).isEqualTo(304);
+            assertThat(notModified.body()).isEmpty();
+
+            var badRequest = client.send(HttpRequest.newBuilder(URI.create(base + "tile.png&x=8&y=16&w=32")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(badRequest.statusCode()).isEqualTo(400);
+            assertThat(badRequest.body()).contains("h is not specified");
+
+            var outOfSourceDir = client.send(HttpRequest.newBuilder(URI.create(base + "%2e%2e%2ftile.png&x=0&y=0&w=1&h=1")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(outOfSourceDir.statusCode()).isEqualTo(400);
+
+            var notFound = client.send(HttpRequest.newBuilder(URI.create(base + "missing.png&x=0&y=0&w=1&h=1")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertThat(notFound.statusCode()).isEqualTo(404);
+
+        } finally {
+            server.stop(0);
+            ((ExecutorService) server.getExecutor()).shutdown();
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer buf) {
+        return Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.limit());
+    }
+}
@@ -0,0 +1,86 @@
+package me.k11i.croppng.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CropRequestTest {
+    private static Map<String, String> params(String... nameValues) {
+        var result = new HashMap<String, String>();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            result.put(nameValues[i], nameValues[i + 1]);
+        }
+        return result;
+    }
+
+    @Test
+    void testParse() {
+        var sut = CropRequest.parse(params("src", "a.png", "x", "1", "y", "2", "w", "3", "h", "4", "scale", "5", "level", "9"));
+
+        assertThat(sut.src).isEqualTo("a.png");
+        assertThat(sut.x).isEqualTo(1);
+        assertThat(sut.y).isEqualTo(2);
+        assertThat(sut.width).isEqualTo(3);
+        assertThat(sut.height).isEqualTo(4);
+        assertThat(sut.scaleFactor).isEqualTo(5);
+        assertThat(sut.level).isEqualTo(9);
+    }
+
+    @Test
+    void testDefaults() {
+        var sut = CropRequest.parse(params("src", "a.png", "x", "0", "y", "0", "w", "1", "h", "1"));
+
+        assertThat(sut.scaleFactor).isEqualTo(1);
+        assertThat(sut.level).isEqualTo(6);
+    }
+
+    @Test
+    void testMissingParameters() {
+        assertThatThrownBy(() -> CropRequest.parse(params()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("src");
+        assertThatThrownBy(() -> CropRequest.parse(params("src", "")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("src");
+        assertThatThrownBy(() -> CropRequest.parse(params("src", "a.png", "x", "0", "y", "0", "w", "1")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("h is not specified");
+    }
+
+    @Test
+    void testNegativeParameters() {
+        assertThatThrownBy(() -> CropRequest.parse(params("src", "a.png", "x", "-1", "y", "0", "w", "1", "h", "1")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("x must be");
+        assertThatThrownBy(() -> CropRequest.parse(params("src", "a.png", "x", "0", "y", "0", "w", "0", "h", "1")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("w must be");
+        assertThatThrownBy(() -> CropRequest.parse(params("src", "a.png", "x", "0", "y", "0", "w", "1", "h", "1", "scale", "0")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("scale must be");
+        assertThatThrownBy(() -> CropRequest.parse(params("src", "a.png", "x", "0", "y", "0", "w", "1", "h", "1", "level", "-1")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("level must be");
+    }
+
+    @Test
+    void testNonIntegerParameters() {
+        assertThatThrownBy(() -> CropRequest.parse(params("src", "a.png", "x", "1.5", "y", "0", "w", "1", "h", "1")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("x must be an integer");
+        assertThatThrownBy(() -> CropRequest.parse(params("src", "a.png", "x", "0", "y", "0", "w", "1", "h", "99999999999")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("h must be an integer");
+    }
+
+    @Test
+    void testTooHighLevel() {
+        assertThatThrownBy(() -> CropRequest.parse(params("src", "a.png", "x", "0", "y", "0", "w", "1", "h", "1", "level", "10")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("level must be between 0 and 9");
+    }
+}
@@ -0,0 +1,33 @@
+package me.k11i.croppng.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LoadReportTest {
+    @Test
+    void testPercentile() {
+        var sorted = LongStream.rangeClosed(1, 1000).toArray();
+
+        assertThat(LoadReport.percentile(sorted, 0)).isEqualTo(1L);
+        assertThat(LoadReport.percentile(sorted, 50)).isEqualTo(500L);
+        assertThat(LoadReport.percentile(sorted, 90)).isEqualTo(900L);
+        assertThat(LoadReport.percentile(sorted, 99)).isEqualTo(990L);
+        assertThat(LoadReport.percentile(sorted, 99.9)).isEqualTo(999L);
+        assertThat(LoadReport.percentile(sorted, 100)).isEqualTo(1000L);
+    }
+
+    @Test
+    void testPercentileOfFewSamples() {
+        assertThat(LoadReport.percentile(new long[]{7}, 50)).isEqualTo(7L);
+        assertThat(LoadReport.percentile(new long[]{7}, 99.9)).isEqualTo(7L);
+
+        // Nearest-rank method: the smallest value whose rank is at least p% of the samples.
+        var sorted = new long[]{10, 20, 30, 40};
+        assertThat(LoadReport.percentile(sorted, 25)).isEqualTo(10L);
+        assertThat(LoadReport.percentile(sorted, 26)).isEqualTo(20L);
+        assertThat(LoadReport.percentile(sorted, 99)).isEqualTo(40L);
+    }
+}
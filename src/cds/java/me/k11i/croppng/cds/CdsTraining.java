@@ -0,0 +1,12 @@
+package me.k11i.croppng.cds;
+
+import me.k11i.croppng.CropPng;
+
+/**
+ * Runs {@link CropPng#warmUp()} so that the classes used for cropping are listed by {@code -XX:DumpLoadedClassList}.
+ */
+public class CdsTraining {
+    public static void main(String[] args) {
+        CropPng.warmUp();
+    }
+}
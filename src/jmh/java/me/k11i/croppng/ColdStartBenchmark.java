@@ -0,0 +1,53 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.test.helper.TestImage;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of the first crops in a fresh JVM.
+ *
+ * <p>
+ * Each fork runs a single invocation without warm-up iterations, so that the result includes class loading,
+ * static initialization, interpretation and native zlib initialization.
+ * {@link #first10Crops()} reports the total latency of the first 10 crops.
+ * {@code warmUp = true} calls {@link CropPng#warmUp()} in the setup, which is not measured.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(20)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class ColdStartBenchmark {
+    @Param({"false", "true"})
+    public boolean warmUp;
+
+    private byte[] src;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        src = TestImage.TILE.loadImages()[0];
+
+        if (warmUp) {
+            CropPng.warmUp();
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer firstCrop() {
+        return CropPng.defaultLevel().crop(src, 16, 16, 64, 64, 4);
+    }
+
+    @Benchmark
+    public ByteBuffer first10Crops() {
+        ByteBuffer result = null;
+        for (int i = 0; i < 10; i++) {
+            result = CropPng.defaultLevel().crop(src, 16 + i, 16 + i, 64, 64, 4);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,53 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.test.helper.TestImage;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the latency of {@link CropPng#crop(byte[], int, int, int, int, int)} and
+ * {@link CropPng#cropPipelined(byte[], int, int, int, int, int, java.util.concurrent.Executor)} by crop size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PipelinedCropBenchmark {
+    @Param({"64", "128", "256", "500"})
+    public int cropSize;
+
+    @Param({"1", "4"})
+    public int scaleFactor;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private byte[] src;
+    private CropPng cropPng;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        src = TestImage.SOCIAL.loadImages()[4];
+        cropPng = new CropPng(level);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public ByteBuffer sequential() {
+        return cropPng.crop(src, 0, 0, cropSize, cropSize, scaleFactor);
+    }
+
+    @Benchmark
+    public ByteBuffer pipelined() {
+        return cropPng.cropPipelined(src, 0, 0, cropSize, cropSize, scaleFactor, executor);
+    }
+}
@@ -0,0 +1,59 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.test.helper.TestImage;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reverse filtering of narrow crops on the left and the right side of the image, for each filter type (f0-f4).
+ * Rows filtered by None or Up are reverse-filtered only from the left of the rectangle, so right-hand crops of them are cheaper,
+ * whereas rows filtered by Sub, Average or Paeth are reverse-filtered from the column 0 regardless of the position.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReverseFilterBenchmark {
+    private static final int CROP_WIDTH = 32;
+    private static final int CROP_HEIGHT = 64;
+
+    @Param({"0", "1", "2", "3", "4"})
+    public int filterType;
+
+    @Param({"left", "right"})
+    public String position;
+
+    private byte[] src;
+    private int srcWidth;
+    private CropPng.Rectangle rect;
+    private byte[] filteredBytes;
+    private byte[] srcImageBytes;
+    private CropPng cropPng;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        src = TestImage.SOCIAL.loadImages()[filterType];
+
+        PngReader reader = new PngReader(src);
+        srcWidth = reader.width();
+        int x = "left".equals(position) ? 0 : srcWidth - CROP_WIDTH;
+        rect = new CropPng.Rectangle(x, reader.height() - CROP_HEIGHT, CROP_WIDTH, CROP_HEIGHT);
+
+        filteredBytes = reader.inflateImage(CropPng.numBytesToInflate(rect, srcWidth));
+        srcImageBytes = new byte[filteredBytes.length];
+        cropPng = new CropPng(1);
+    }
+
+    @Benchmark
+    public byte[] reverseFilter() {
+        System.arraycopy(filteredBytes, 0, srcImageBytes, 0, filteredBytes.length);
+        CropPng.reverseFilter(srcImageBytes, rect, srcWidth);
+        return srcImageBytes;
+    }
+
+    @Benchmark
+    public ByteBuffer crop() {
+        return cropPng.crop(src, rect.x, rect.y, rect.width, rect.height, 1);
+    }
+}
@@ -0,0 +1,299 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.CompressionDecision.Reason;
+import me.k11i.croppng.CropPng.Rectangle;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Chooses the compression level per request from the predicted cost of cropping, and crops image with the instance
+ * of the level cached on the calling thread (see {@link CropPng#compressionLevel(int)}).
+ *
+ * <p>
+ * The time of cropping is predicted as {@code decoding ns/byte * CropCost#numBytesToInflate()}
+ * plus {@code deflating ns/byte of the level * CropCost#numCroppedImageBytes()}, and the size of the image data
+ * as {@code size ratio of the level * CropCost#numCroppedImageBytes()}.
+ * The rates start from the values measured with typical images, and are updated online with the measurements of every cropping.
+ * The measurements are accumulated weighted by the number of bytes and decayed exponentially per request,
+ * so that large crops, whose per-byte rates are not distorted by the fixed overhead, dominate the rates.
+ * Until a level has accumulated enough measurements, its rates are the initial values scaled by how the measurements of all levels
+ * deviate from the initial values, which reflects the speed of the machine and the compressibility of the images.
+ * </p>
+ * <p>
+ * Among the levels 1 to 9 whose predicted time is within the budget, the fastest one whose predicted size ratio is within
+ * {@code targetSizeRatio} is chosen; if none of them meets the target, the one of the smallest predicted size ratio is chosen.
+ * If no level is predicted to be within the budget, the fastest level is chosen.
+ * Level 0, which does not compress at all, is never chosen.
+ * The recent decisions are kept for tuning (see {@link #recentDecisions()}).
+ * </p>
+ * <p>
+ * Instances of this class are thread-safe, and are expected to be shared by the threads that serve an endpoint.
+ * </p>
+ */
+public final class AdaptiveCompression {
+    private static final int MIN_LEVEL = 1;
+    private static final int MAX_LEVEL = 9;
+
+    private static final double INITIAL_DECODE_NANOS_PER_BYTE = 10;
+    private static final double[] INITIAL_DEFLATE_NANOS_PER_BYTE = {1, 11, 11, 14, 16, 20, 29, 35, 86, 273};
+    private static final double[] INITIAL_SIZE_RATIOS = {1, 0.097, 0.096, 0.095, 0.090, 0.089, 0.089, 0.088, 0.088, 0.087};
+
+    /**
+     * Factor by which the accumulated measurements are decayed per request.
+     */
+    private static final double DECAY = 0.95;
+
+    /**
+     * Number of measurements, decayed like the rates, from which the rates of a level are computed from its own measurements.
+     * It is counted per request rather than per byte, because the decayed sum of the bytes of small crops
+     * converges to {@code bytes / (1 - DECAY)}, which may never reach a threshold of bytes.
+     */
+    private static final double MIN_SAMPLES_TO_MEASURE_LEVEL = 4;
+
+    private static final int NUM_RECENT_DECISIONS = 128;
+
+    private final long budgetNanos;
+    private final double targetSizeRatio;
+    private final CropLimits limits;
+
+    // The followings are guarded by this.
+    private final Rate decodeNanos = new Rate();
+    private final Rate[] deflateNanos = newRates();
+    private final Rate[] deflatedBytes = newRates();
+    private final Rate deflateNanosToInitial = new Rate();
+    private final Rate deflatedBytesToInitial = new Rate();
+    private final ArrayDeque<CompressionDecision> recentDecisions = new ArrayDeque<>(NUM_RECENT_DECISIONS);
+
+    /**
+     * Ratio of the sums of measured values and of their weights, both of which are decayed exponentially
+     * along with the number of the measurements.
+     */
+    private static class Rate {
+        double value;
+        double weight;
+        double numSamples;
+
+        void add(double value, double weight) {
+            this.value = this.value * DECAY + value;
+            this.weight = this.weight * DECAY + weight;
+            this.numSamples = this.numSamples * DECAY + 1;
+        }
+
+        double get(double defaultValue) {
+            return weight > 0 ? value / weight : defaultValue;
+        }
+    }
+
+    private static Rate[] newRates() {
+        Rate[] result = new Rate[MAX_LEVEL + 1];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new Rate();
+        }
+        return result;
+    }
+
+    /**
+     * Constructs an object.
+     *
+     * @param budgetNanos     budget of the time of cropping per request, in nanoseconds (must be > 0).
+     * @param targetSizeRatio target ratio of the deflated size to the filtered bytes of the cropped image (must be >= 0).
+     *                        The compression level is not raised any more once the predicted ratio is within the target.
+     *                        Specify {@code 0} to make the image as small as the budget allows.
+     */
+    public AdaptiveCompression(long budgetNanos, double targetSizeRatio) {
+        this(budgetNanos, targetSizeRatio, CropLimits.unlimited());
+    }
+
+    /**
+     * Constructs an object with limits on the cost of cropping.
+     *
+     * @param budgetNanos     budget of the time of cropping per request, in nanoseconds (must be > 0).
+     * @param targetSizeRatio target ratio of the deflated size to the filtered bytes of the cropped image (must be >= 0).
+     * @param limits          {@link CropLimits} that are checked before cropping, since the instances cached on the calling thread
+     *                        have {@link CropLimits#unlimited()}.
+     */
+    public AdaptiveCompression(long budgetNanos, double targetSizeRatio, @NotNull CropLimits limits) {
+        if (budgetNanos <= 0) {
+            throw new IllegalArgumentException("budgetNanos must be greater than 0 but " + budgetNanos);
+        }
+        if (!(targetSizeRatio >= 0)) {
+            throw new IllegalArgumentException("targetSizeRatio must be greater than or equal to 0 but " + targetSizeRatio);
+        }
+
+        this.budgetNanos = budgetNanos;
+        this.targetSizeRatio = targetSizeRatio;
+        this.limits = Objects.requireNonNull(limits, "limits must be non-null");
+    }
+
+    /**
+     * Extracts the absolute rectangular region of pixels from {@code src} PNG image with the compression level
+     * chosen by {@link #decide(CropCost)}, and updates the predictions with the measurements.
+     *
+     * @param src         byte data of the source PNG image.
+     * @param x           x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y           y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width       width of the rectangle to be extracted.
+     * @param height      height of the rectangle to be extracted.
+     * @param scaleFactor magnification factor (must be > 0).
+     * @return {@link ByteBuffer} object of PNG-encoded image.
+     * @throws CropLimitExceededException if the cost of cropping is not within the limits given to the constructor.
+     * @see CropPng#crop(byte[], int, int, int, int, int)
+     */
+    public @NotNull ByteBuffer crop(@NotNull byte[] src, int x, int y, int width, int height, int scaleFactor) {
+        Objects.requireNonNull(src, "src must be non-null");
+
+        CropPng.checkScaleFactor(scaleFactor);
+
+        // The image is parsed once, without any CropPng object, both to estimate the cost and to crop it.
+        PngReader reader = new PngReader(src, null);
+        Rectangle rect = new Rectangle(x, y, width, height);
+        CropPng.checkRectangle(reader, rect);
+        CropCost cost = CropPng.estimate(reader, rect, scaleFactor);
+        limits.check(cost);
+        CompressionDecision decision = decide(cost);
+        CropPng cropPng = CropPng.compressionLevel(decision.level());
+
+        PngWriteBuffer.DeflateStats stats = new PngWriteBuffer.DeflateStats();
+        ByteBuffer result;
+        long start = System.nanoTime();
+        cropPng.measureDeflation(stats);
+        try {
+            result = cropPng.crop(reader, rect, scaleFactor, cost, CancellationToken.NONE);
+        } finally {
+            cropPng.measureDeflation(null);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        update(decision, elapsed, stats.nanos, stats.numInputBytes, stats.numOutputBytes);
+        return result;
+    }
+
+    /**
+     * Chooses the compression level for the cost of cropping, without cropping.
+     */
+    public synchronized @NotNull CompressionDecision decide(@NotNull CropCost cost) {
+        Objects.requireNonNull(cost, "cost must be non-null");
+
+        long numBytesToInflate = cost.numBytesToInflate();
+        long numCroppedImageBytes = cost.numCroppedImageBytes();
+        double predictedDecodeNanos = predictedDecodeNanosPerByte() * numBytesToInflate;
+
+        int fastest = -1;
+        int smallestWithinBudget = -1;
+        int fastestMeetingTarget = -1;
+        double[] predictedNanos = new double[MAX_LEVEL + 1];
+        double[] sizeRatios = new double[MAX_LEVEL + 1];
+
+        for (int level = MIN_LEVEL; level <= MAX_LEVEL; level++) {
+            predictedNanos[level] = predictedDecodeNanos + predictedDeflateNanosPerByte(level) * numCroppedImageBytes;
+            sizeRatios[level] = predictedSizeRatio(level);
+
+            if (fastest < 0 || predictedNanos[level] < predictedNanos[fastest]) {
+                fastest = level;
+            }
+            if (predictedNanos[level] > budgetNanos) {
+                continue;
+            }
+            if (smallestWithinBudget < 0 || sizeRatios[level] < sizeRatios[smallestWithinBudget]) {
+                smallestWithinBudget = level;
+            }
+            if (sizeRatios[level] <= targetSizeRatio
+                    && (fastestMeetingTarget < 0 || predictedNanos[level] < predictedNanos[fastestMeetingTarget])) {
+                fastestMeetingTarget = level;
+            }
+        }
+
+        int level;
+        Reason reason;
+        if (fastestMeetingTarget >= 0) {
+            level = fastestMeetingTarget;
+            reason = Reason.TARGET_SIZE_RATIO_MET;
+        } else if (smallestWithinBudget >= 0) {
+            level = smallestWithinBudget;
+            reason = Reason.SMALLEST_WITHIN_BUDGET;
+        } else {
+            level = fastest;
+            reason = Reason.FASTEST_OVER_BUDGET;
+        }
+
+        return new CompressionDecision(level, reason, numBytesToInflate, numCroppedImageBytes,
+                (long) predictedNanos[level], sizeRatios[level]);
+    }
+
+    /**
+     * Returns the predicted time of deflating a byte with {@code level}, in nanoseconds.
+     */
+    public synchronized double predictedDeflateNanosPerByte(int level) {
+        checkLevel(level);
+        return deflateNanos[level].numSamples >= MIN_SAMPLES_TO_MEASURE_LEVEL
+                ? deflateNanos[level].get(0)
+                : INITIAL_DEFLATE_NANOS_PER_BYTE[level] * deflateNanosToInitial.get(1);
+    }
+
+    /**
+     * Returns the predicted ratio of the deflated size to the size before deflating with {@code level}.
+     */
+    public synchronized double predictedSizeRatio(int level) {
+        checkLevel(level);
+        return deflatedBytes[level].numSamples >= MIN_SAMPLES_TO_MEASURE_LEVEL
+                ? deflatedBytes[level].get(0)
+                : INITIAL_SIZE_RATIOS[level] * deflatedBytesToInitial.get(1);
+    }
+
+    /**
+     * Returns the predicted time of decoding (inflating and reverse-filtering) a byte of the source image, in nanoseconds.
+     */
+    public synchronized double predictedDecodeNanosPerByte() {
+        return decodeNanos.get(INITIAL_DECODE_NANOS_PER_BYTE);
+    }
+
+    /**
+     * Returns the recent decisions made by {@link #crop(byte[], int, int, int, int, int)} with their measurements,
+     * from the oldest to the newest.
+     */
+    public synchronized @NotNull List<CompressionDecision> recentDecisions() {
+        return new ArrayList<>(recentDecisions);
+    }
+
+    private synchronized void update(CompressionDecision decision, long elapsedNanos, long elapsedDeflateNanos,
+                                     long numDeflateInputBytes, long numDeflateOutputBytes) {
+        int level = decision.level();
+        double sizeRatio = numDeflateInputBytes > 0 ? (double) numDeflateOutputBytes / numDeflateInputBytes : Double.NaN;
+
+        if (decision.numBytesToInflate() > 0) {
+            decodeNanos.add(Math.max(0, elapsedNanos - elapsedDeflateNanos), decision.numBytesToInflate());
+        }
+
+        if (numDeflateInputBytes > 0) {
+            deflateNanos[level].add(elapsedDeflateNanos, numDeflateInputBytes);
+            deflatedBytes[level].add(numDeflateOutputBytes, numDeflateInputBytes);
+            deflateNanosToInitial.add(elapsedDeflateNanos, INITIAL_DEFLATE_NANOS_PER_BYTE[level] * numDeflateInputBytes);
+            deflatedBytesToInitial.add(numDeflateOutputBytes, INITIAL_SIZE_RATIOS[level] * numDeflateInputBytes);
+        }
+
+        if (recentDecisions.size() == NUM_RECENT_DECISIONS) {
+            recentDecisions.removeFirst();
+        }
+        recentDecisions.addLast(decision.withActual(elapsedNanos, elapsedDeflateNanos, sizeRatio));
+    }
+
+    private static void checkLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("level must be between 0 and 9 but " + level);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveCompression{" +
+                "budgetNanos=" + budgetNanos +
+                ", targetSizeRatio=" + targetSizeRatio +
+                ", limits=" + limits +
+                '}';
+    }
+}
@@ -0,0 +1,255 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.CropPng.Rectangle;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static me.k11i.croppng.PngConsts.*;
+
+/**
+ * Crops the same rectangle from every frame of an animated PNG (APNG) image.
+ *
+ * <p>
+ * Each frame is decoded only within its intersection with the rectangle, and is re-encoded as a frame
+ * whose fcTL chunk is rewritten with the new size, offset and sequence number.
+ * The {@link java.util.zip.Inflater}/{@link Deflater} objects and the scratch buffers are reused across frames.
+ * </p>
+ * <p>
+ * A frame that does not intersect with the rectangle is replaced with a 1x1 fully-transparent frame
+ * if the palette has a fully-transparent entry. Otherwise it is dropped and its delay is added to the previous frame,
+ * which is exact as long as the dispose operation of the previous frame is {@code APNG_DISPOSE_OP_NONE}.
+ * </p>
+ *
+ * @see <a href="https://wiki.mozilla.org/APNG_Specification">APNG Specification</a>
+ */
+class ApngCropper {
+    private static final int DISPOSE_OP_NONE = 0;
+    private static final int BLEND_OP_OVER = 1;
+    private static final int DEFAULT_DELAY_DEN = 100;
+    private static final int MAX_DELAY = 0xffff;
+
+    private final PngReader reader;
+    private final ByteBuffer src;
+    private final int transparentIndex;
+    private final PngWriteBuffer out;
+
+    private byte[] inflateBuffer = new byte[0];
+    private byte[] cropBuffer = new byte[0];
+
+    private int sequenceNumber;
+    private int numFrames;
+    private int lastFcTLPos = -1;
+    private int lastDelayNum;
+    private int lastDelayDen;
+
+    ApngCropper(PngReader reader, Deflater deflater) {
+        this(reader, deflater, null);
+    }
+
+    /**
+     * @param deflateStats statistics into which the deflating of the frames is measured, or {@code null} not to measure it.
+     */
+    ApngCropper(PngReader reader, Deflater deflater, PngWriteBuffer.DeflateStats deflateStats) {
+        this.reader = reader;
+        this.src = reader.src;
+        this.transparentIndex = findTransparentIndex(reader);
+        this.out = new PngWriteBuffer(src.limit(), deflater, reader.cancellationToken())
+                .measureDeflation(deflateStats);
+    }
+
+    ByteBuffer crop(Rectangle rect, int scaleFactor) {
+        CropPng.writeHeader(out, slice(0, AFTER_IHDR_CHUNK_POS), rect, scaleFactor);
+
+        int acTLPos = -1;
+
+        for (int pos = AFTER_IHDR_CHUNK_POS; pos < reader.firstIDATChunkPos(); pos = reader.nextChunkPos(pos)) {
+            switch (reader.chunkType(pos)) {
+                case CHUNK_TYPE_ACTL:
+                    acTLPos = out.position();
+                    copyChunk(pos);
+                    break;
+
+                case CHUNK_TYPE_FCTL:
+                    // The default image is the first frame of the animation.
+                    writeFrameControl(pos, rect, rect, scaleFactor);
+                    break;
+
+                default:
+                    copyChunk(pos);
+            }
+        }
+
+        int len = decodeAndCrop(rect, reader.width(), scaleFactor);
+        out.writeImage(cropBuffer, len);
+
+        int pos = reader.afterIDATChunkPos();
+        while (pos < src.limit()) {
+            switch (reader.chunkType(pos)) {
+                case CHUNK_TYPE_FCTL:
+                    int firstFdATChunkPos = reader.nextChunkPos(pos);
+                    int afterFdATChunkPos = reader.findChunk(firstFdATChunkPos, CHUNK_TYPE_FDAT, false);
+                    cropFrame(pos, firstFdATChunkPos, afterFdATChunkPos, rect, scaleFactor);
+                    pos = afterFdATChunkPos;
+                    break;
+
+                case CHUNK_TYPE_FDAT:
+                    throw new IllegalArgumentException("fdAT chunk must follow fcTL chunk: chunk position = " + pos);
+
+                default:
+                    copyChunk(pos);
+                    pos = reader.nextChunkPos(pos);
+            }
+        }
+
+        if (acTLPos >= 0) {
+            out.writeIntAt(numFrames, acTLPos + ACTL_NUM_FRAMES_OFFSET)
+                    .updateCRC(acTLPos + 4, ACTL_CHUNK_LEN + 4, false);
+        }
+
+        return out.toByteBuffer();
+    }
+
+    private void cropFrame(int fcTLPos, int firstFdATChunkPos, int afterFdATChunkPos, Rectangle rect, int scaleFactor) {
+        int frameWidth = src.getInt(fcTLPos + FCTL_WIDTH_OFFSET);
+        int frameHeight = src.getInt(fcTLPos + FCTL_HEIGHT_OFFSET);
+        int frameX = src.getInt(fcTLPos + FCTL_X_OFFSET_OFFSET);
+        int frameY = src.getInt(fcTLPos + FCTL_Y_OFFSET_OFFSET);
+        checkFrame(fcTLPos, frameX, frameY, frameWidth, frameHeight);
+
+        Rectangle intersection = rect.intersect(frameX, frameY, frameWidth, frameHeight);
+        if (intersection.isEmpty()) {
+            skipFrame(fcTLPos);
+            return;
+        }
+
+        reader.startFrame(firstFdATChunkPos, afterFdATChunkPos);
+        int len = decodeAndCrop(intersection.translate(-frameX, -frameY), frameWidth, scaleFactor);
+
+        writeFrameControl(fcTLPos, intersection, rect, scaleFactor);
+        out.writeFrameImage(sequenceNumber++, cropBuffer, len);
+    }
+
+    /**
+     * Checks that the frame is within the image, which the buffers and {@link CropLimits} assume.
+     */
+    private void checkFrame(int fcTLPos, int frameX, int frameY, int frameWidth, int frameHeight) {
+        if (frameX < 0 || frameY < 0 || frameWidth < 1 || frameHeight < 1
+                || (long) frameX + frameWidth > reader.width() || (long) frameY + frameHeight > reader.height()) {
+            throw new IllegalArgumentException(String.format(
+                    "Frame (%d, %d, %d, %d) must be within the image of %dx%d pixels: chunk position = %d",
+                    frameX, frameY, frameWidth, frameHeight, reader.width(), reader.height(), fcTLPos));
+        }
+    }
+
+    private void skipFrame(int fcTLPos) {
+        if (transparentIndex >= 0) {
+            int pos = out.position();
+            Rectangle pixel = new Rectangle(0, 0, 1, 1);
+            writeFrameControl(fcTLPos, pixel, pixel, 1);
+            out.writeShortAt((DISPOSE_OP_NONE << 8) | BLEND_OP_OVER, pos + FCTL_DISPOSE_OP_OFFSET)
+                    .updateCRC(pos + 4, FCTL_CHUNK_LEN + 4, false);
+
+            byte[] imageBytes = {(byte) PngFilter.NONE.ordinal(), (byte) transparentIndex};
+            out.writeFrameImage(sequenceNumber++, imageBytes, imageBytes.length);
+            return;
+        }
+
+        if (lastFcTLPos >= 0) {
+            addDelayToLastFrame(
+                    src.getShort(fcTLPos + FCTL_DELAY_NUM_OFFSET) & 0xffff,
+                    src.getShort(fcTLPos + FCTL_DELAY_DEN_OFFSET) & 0xffff);
+        }
+        // Otherwise no frame has been displayed yet, so that the frame can simply be dropped.
+    }
+
+    private int decodeAndCrop(Rectangle rect, int srcWidth, int scaleFactor) {
+        int numCroppedImageBytes = CropPng.numCroppedImageBytes(rect, scaleFactor);
+        if (cropBuffer.length < numCroppedImageBytes) {
+            cropBuffer = new byte[numCroppedImageBytes];
+        } else {
+            Arrays.fill(cropBuffer, 0, numCroppedImageBytes, (byte) 0);
+        }
+
+        if (!CropPng.fitsInMemory(srcWidth, rect)) {
+            int numDstBytesPerSrcRow = (rect.width * scaleFactor + 1) * scaleFactor;
+            RowDecoder decoder = new RowDecoder(reader, srcWidth, rect.right());
+            for (int y = rect.top(); y < rect.bottom(); y++) {
+                CropPng.cropRow(decoder.readRow(y), decoder.rowOffset(), rect, scaleFactor, cropBuffer, numDstBytesPerSrcRow * (y - rect.top()));
+            }
+            return numCroppedImageBytes;
+        }
+
+        int numBytesToInflate = CropPng.numBytesToInflate(rect, srcWidth);
+        if (inflateBuffer.length < numBytesToInflate) {
+            inflateBuffer = new byte[numBytesToInflate];
+        }
+
+        reader.inflate(inflateBuffer, 0, numBytesToInflate);
+        CropPng.reverseFilter(inflateBuffer, rect, srcWidth);
+        CropPng.cropImage(inflateBuffer, rect, srcWidth, scaleFactor, cropBuffer);
+        return numCroppedImageBytes;
+    }
+
+    private void writeFrameControl(int fcTLPos, Rectangle frame, Rectangle rect, int scaleFactor) {
+        int pos = out.position();
+
+        out.writeBytes(slice(fcTLPos, 8 + FCTL_CHUNK_LEN + 4))
+                .writeIntAt(sequenceNumber++, pos + FCTL_SEQUENCE_NUMBER_OFFSET)
+                .writeIntAt(frame.width * scaleFactor, pos + FCTL_WIDTH_OFFSET)
+                .writeIntAt(frame.height * scaleFactor, pos + FCTL_HEIGHT_OFFSET)
+                .writeIntAt((frame.left() - rect.left()) * scaleFactor, pos + FCTL_X_OFFSET_OFFSET)
+                .writeIntAt((frame.top() - rect.top()) * scaleFactor, pos + FCTL_Y_OFFSET_OFFSET)
+                .updateCRC(pos + 4, FCTL_CHUNK_LEN + 4, false);
+
+        numFrames++;
+        lastFcTLPos = pos;
+        lastDelayNum = src.getShort(fcTLPos + FCTL_DELAY_NUM_OFFSET) & 0xffff;
+        lastDelayDen = src.getShort(fcTLPos + FCTL_DELAY_DEN_OFFSET) & 0xffff;
+    }
+
+    private void addDelayToLastFrame(int delayNum, int delayDen) {
+        int lastDen = lastDelayDen == 0 ? DEFAULT_DELAY_DEN : lastDelayDen;
+        int den = delayDen == 0 ? DEFAULT_DELAY_DEN : delayDen;
+
+        if (lastDen == den && lastDelayNum + delayNum <= MAX_DELAY) {
+            lastDelayNum += delayNum;
+        } else {
+            long millis = Math.round(1000.0 * lastDelayNum / lastDen + 1000.0 * delayNum / den);
+            if (millis <= MAX_DELAY) {
+                lastDelayNum = (int) millis;
+                lastDelayDen = 1000;
+            } else {
+                lastDelayNum = (int) Math.min((millis + 5) / 10, MAX_DELAY);
+                lastDelayDen = 100;
+            }
+        }
+
+        out.writeShortAt(lastDelayNum, lastFcTLPos + FCTL_DELAY_NUM_OFFSET)
+                .writeShortAt(lastDelayDen, lastFcTLPos + FCTL_DELAY_DEN_OFFSET)
+                .updateCRC(lastFcTLPos + 4, FCTL_CHUNK_LEN + 4, false);
+    }
+
+    private void copyChunk(int pos) {
+        out.writeBytes(slice(pos, reader.nextChunkPos(pos) - pos));
+    }
+
+    private ByteBuffer slice(int pos, int len) {
+        return src.duplicate().position(pos).limit(pos + len);
+    }
+
+    private static int findTransparentIndex(PngReader reader) {
+        int pos = reader.findChunkBefore(AFTER_IHDR_CHUNK_POS, reader.firstIDATChunkPos(), CHUNK_TYPE_TRNS);
+        if (pos < 0) {
+            return -1;
+        }
+
+        for (int i = 0, len = reader.chunkLength(pos); i < len; i++) {
+            if (reader.src.get(pos + 8 + i) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
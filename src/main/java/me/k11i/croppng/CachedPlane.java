@@ -0,0 +1,237 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.CropPng.Rectangle;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Reverse-filtered pixels (palette indices) of a source PNG image stored in a file of {@link PlaneCache},
+ * which is mapped into memory by {@link FileChannel#map(FileChannel.MapMode, long, long)}.
+ *
+ * <p>
+ * The file consists of the following fields, whose integers are in big-endian:
+ * </p>
+ * <ol>
+ *     <li>magic number {@code "CROPPLN2"} (8 bytes)</li>
+ *     <li>width, height, length of the head and length of the tail of the source image (4 bytes each)</li>
+ *     <li>head: the bytes from the PNG signature up to the first IDAT chunk (see {@link PngSource#head()})</li>
+ *     <li>plane: {@code width x height} palette indices in row-major order</li>
+ *     <li>tail: the chunks that follow the IDAT chunks (see {@link PngSource#tail()})</li>
+ * </ol>
+ * <p>
+ * The tail follows the plane so that the plane can be written row by row before the tail is known.
+ * Files of the former format {@code "CROPPLN1"}, whose tail precedes the plane, are treated as broken and decoded again.
+ * </p>
+ * <p>
+ * Use {@link CropPng#crop(CachedPlane, int, int, int, int, int)} to crop image from an object of this class,
+ * which reads only the rows of the rectangle from the mapped file: nothing is inflated or reverse-filtered.
+ * </p>
+ */
+public final class CachedPlane {
+    private static final long MAGIC = 0x43524f50504c4e32L; // "CROPPLN2"
+    private static final int HEADER_BYTES = 8 + 4 * 4;
+
+    private final String key;
+    private final int width;
+    private final int height;
+    private final ByteBuffer head;
+    private final ByteBuffer tail;
+    private final ByteBuffer plane;
+
+    private CachedPlane(String key, int width, int height, ByteBuffer head, ByteBuffer tail, ByteBuffer plane) {
+        this.key = key;
+        this.width = width;
+        this.height = height;
+        this.head = head;
+        this.tail = tail;
+        this.plane = plane;
+    }
+
+    /**
+     * Returns the key of this plane in {@link PlaneCache}, which is the hex-encoded SHA-256 hash of the source PNG image.
+     */
+    public @NotNull String key() {
+        return key;
+    }
+
+    /**
+     * Returns the width of the source image.
+     */
+    public int width() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the source image.
+     */
+    public int height() {
+        return height;
+    }
+
+    ByteBuffer head() {
+        return head.duplicate();
+    }
+
+    ByteBuffer tail() {
+        return tail.duplicate();
+    }
+
+    /**
+     * Returns the number of bytes of the file that stores the plane of {@code width x height} pixels.
+     */
+    static long fileSize(int width, int height, int headBytes, int tailBytes) {
+        return HEADER_BYTES + (long) headBytes + tailBytes + (long) width * height;
+    }
+
+    /**
+     * Writes the plane decoded from {@code source}, whose image data must not have been inflated yet, into the existing file.
+     * The size of the file must be checked by {@link #fileSize(int, int, int, int)} in advance.
+     *
+     * <p>
+     * The rows are decoded by {@link RowDecoder} and written band by band, so that the memory usage is bounded by
+     * the width of the image and the size of a band rather than the size of the plane.
+     * </p>
+     */
+    static void write(Path path, PngSource source) throws IOException {
+        int width = source.width();
+        int height = source.height();
+        ByteBuffer head = source.head();
+
+        int numRowsPerBand = Math.max(1, Math.min(height, CropPng.BAND_SIZE / Math.max(1, width)));
+        byte[] band = new byte[width * numRowsPerBand];
+
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // The header is written last, since the length of the tail is not known until the image data has been inflated.
+            ch.position(HEADER_BYTES);
+            writeFully(ch, head.duplicate());
+
+            RowDecoder decoder = new RowDecoder(source, width);
+            int pos = 0;
+
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(decoder.readRow(y), decoder.rowOffset(), band, pos, width);
+                pos += width;
+
+                if (pos == band.length) {
+                    writeFully(ch, ByteBuffer.wrap(band, 0, pos));
+                    pos = 0;
+                }
+            }
+            writeFully(ch, ByteBuffer.wrap(band, 0, pos));
+
+            // The tail must be read after the image data has been inflated.
+            ByteBuffer tail = source.tail();
+            writeFully(ch, tail.duplicate());
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                    .order(ByteOrder.BIG_ENDIAN)
+                    .putLong(MAGIC)
+                    .putInt(width)
+                    .putInt(height)
+                    .putInt(head.remaining())
+                    .putInt(tail.remaining())
+                    .flip();
+            ch.position(0);
+            writeFully(ch, header);
+
+            ch.force(false);
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    /**
+     * Maps the file of the plane into memory.
+     *
+     * @throws IOException if the file cannot be read or is not a valid file of a plane.
+     */
+    static CachedPlane map(String key, Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid size of plane file: " + path);
+            }
+
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.BIG_ENDIAN);
+            int width = buf.getInt(8);
+            int height = buf.getInt(12);
+            int headBytes = buf.getInt(16);
+            int tailBytes = buf.getInt(20);
+
+            if (buf.getLong(0) != MAGIC || width < 0 || height < 0 || headBytes < 0 || tailBytes < 0
+                    || fileSize(width, height, headBytes, tailBytes) != size) {
+                throw new IOException("Broken plane file: " + path);
+            }
+
+            int headPos = HEADER_BYTES;
+            int planePos = headPos + headBytes;
+            int tailPos = planePos + width * height;
+
+            return new CachedPlane(key, width, height,
+                    slice(buf, headPos, headBytes), slice(buf, tailPos, tailBytes), slice(buf, planePos, width * height));
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int pos, int len) {
+        ByteBuffer dup = buf.duplicate();
+        dup.position(pos).limit(pos + len);
+        return dup.slice();
+    }
+
+    /**
+     * Crops image in the same way as {@link OrientedCropper} with {@link Orientation#NORMAL}: only the span of the rectangle
+     * is copied from each row of the mapped plane, and is filtered and enlarged directly into the output rows.
+     */
+    ByteBuffer crop(Rectangle rect, int scaleFactor, Deflater deflater) {
+        int numDstBytesPerSrcRow = (rect.width * scaleFactor + 1) * scaleFactor;
+        int numRowsPerBand = Math.max(1, Math.min(rect.height, CropPng.BAND_SIZE / numDstBytesPerSrcRow));
+        byte[] band = new byte[numDstBytesPerSrcRow * numRowsPerBand];
+        byte[] row = new byte[rect.width];
+
+        PngWriteBuffer buf = new PngWriteBuffer(head.remaining() + tail.remaining() + band.length, deflater);
+        CropPng.writeHeader(buf, head(), rect, scaleFactor);
+        buf.beginImage();
+
+        ByteBuffer src = plane.duplicate();
+        int pos = 0;
+
+        for (int y = rect.top(); y < rect.bottom(); y++) {
+            src.position(width * y + rect.left());
+            src.get(row, 0, rect.width);
+            OrientedCropper.writeRow(row, 0, rect.width, false, scaleFactor, band, pos);
+            pos += numDstBytesPerSrcRow;
+
+            if (pos == band.length) {
+                buf.writeImageBytes(band, 0, pos);
+                Arrays.fill(band, (byte) 0);
+                pos = 0;
+            }
+        }
+
+        return buf.writeImageBytes(band, 0, pos)
+                .endImage()
+                .writeBytes(tail())
+                .toByteBuffer();
+    }
+
+    @Override
+    public String toString() {
+        return "CachedPlane{" +
+                "key='" + key + '\'' +
+                ", width=" + width +
+                ", height=" + height +
+                '}';
+    }
+}
@@ -0,0 +1,84 @@
+package me.k11i.croppng;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Token to abort cropping cooperatively, either explicitly by {@link #cancel()} or when its deadline has passed.
+ *
+ * <p>
+ * {@link CropPng#crop(byte[], int, int, int, int, int, CancellationToken)} checks the token at the granularity of
+ * a block of inflated bytes, a band of rows and a block of deflated bytes (tens of kilobytes each),
+ * and throws {@link CropCancelledException} once the token is cancelled.
+ * A token can be shared by any number of crops and threads.
+ * </p>
+ */
+public class CancellationToken {
+    /**
+     * Token that is never cancelled, which is used when no token is given.
+     */
+    static final CancellationToken NONE = new CancellationToken(0, false);
+
+    private final long deadlineNanos;
+    private final boolean hasDeadline;
+    private volatile boolean cancelled;
+
+    /**
+     * The constructor is package-private so that the class cannot be extended outside this package,
+     * while tests can override {@link #isCancelled()}.
+     */
+    CancellationToken(long deadlineNanos, boolean hasDeadline) {
+        this.deadlineNanos = deadlineNanos;
+        this.hasDeadline = hasDeadline;
+    }
+
+    /**
+     * Returns a new token that is cancelled only by {@link #cancel()}.
+     */
+    public static @NotNull CancellationToken create() {
+        return new CancellationToken(0, false);
+    }
+
+    /**
+     * Returns a new token that is cancelled when {@link System#nanoTime()} reaches {@code deadlineNanos}, or by {@link #cancel()}.
+     */
+    public static @NotNull CancellationToken withDeadline(long deadlineNanos) {
+        return new CancellationToken(deadlineNanos, true);
+    }
+
+    /**
+     * Returns a new token that is cancelled when {@code timeout} has elapsed from now, or by {@link #cancel()}.
+     */
+    public static @NotNull CancellationToken withTimeout(@NotNull Duration timeout) {
+        Objects.requireNonNull(timeout, "timeout must be non-null");
+        return withDeadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * Cancels the crops that check this token.
+     */
+    public void cancel() {
+        if (this == NONE) {
+            throw new UnsupportedOperationException();
+        }
+        cancelled = true;
+    }
+
+    /**
+     * Returns {@code true} if this token has been cancelled or its deadline has passed.
+     */
+    public boolean isCancelled() {
+        return cancelled || (hasDeadline && System.nanoTime() - deadlineNanos >= 0);
+    }
+
+    /**
+     * Throws {@link CropCancelledException} if this token has been cancelled or its deadline has passed.
+     */
+    void check() {
+        if (isCancelled()) {
+            throw new CropCancelledException(cancelled ? "Cropping has been cancelled" : "Deadline of cropping has passed");
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package me.k11i.croppng;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Compression level chosen by {@link AdaptiveCompression} for a request, with the predictions it was based on
+ * and the measurements of the cropping.
+ */
+public final class CompressionDecision {
+    /**
+     * Why the compression level was chosen.
+     */
+    public enum Reason {
+        /**
+         * The fastest level whose predicted size ratio is within the target, among the levels predicted to be within the budget.
+         */
+        TARGET_SIZE_RATIO_MET,
+
+        /**
+         * The level of the smallest predicted size ratio among the levels predicted to be within the budget,
+         * none of which meets the target size ratio.
+         */
+        SMALLEST_WITHIN_BUDGET,
+
+        /**
+         * The fastest level, because no level is predicted to be within the budget.
+         */
+        FASTEST_OVER_BUDGET,
+    }
+
+    private final int level;
+    private final Reason reason;
+    private final long numBytesToInflate;
+    private final long numCroppedImageBytes;
+    private final long predictedNanos;
+    private final double predictedSizeRatio;
+    private final long actualNanos;
+    private final long actualDeflateNanos;
+    private final double actualSizeRatio;
+
+    CompressionDecision(int level, Reason reason, long numBytesToInflate, long numCroppedImageBytes,
+                        long predictedNanos, double predictedSizeRatio) {
+        this(level, reason, numBytesToInflate, numCroppedImageBytes, predictedNanos, predictedSizeRatio, -1, -1, Double.NaN);
+    }
+
+    private CompressionDecision(int level, Reason reason, long numBytesToInflate, long numCroppedImageBytes,
+                                long predictedNanos, double predictedSizeRatio,
+                                long actualNanos, long actualDeflateNanos, double actualSizeRatio) {
+        this.level = level;
+        this.reason = reason;
+        this.numBytesToInflate = numBytesToInflate;
+        this.numCroppedImageBytes = numCroppedImageBytes;
+        this.predictedNanos = predictedNanos;
+        this.predictedSizeRatio = predictedSizeRatio;
+        this.actualNanos = actualNanos;
+        this.actualDeflateNanos = actualDeflateNanos;
+        this.actualSizeRatio = actualSizeRatio;
+    }
+
+    CompressionDecision withActual(long actualNanos, long actualDeflateNanos, double actualSizeRatio) {
+        return new CompressionDecision(level, reason, numBytesToInflate, numCroppedImageBytes,
+                predictedNanos, predictedSizeRatio, actualNanos, actualDeflateNanos, actualSizeRatio);
+    }
+
+    /**
+     * Returns the chosen compression level.
+     */
+    public int level() {
+        return level;
+    }
+
+    public @NotNull Reason reason() {
+        return reason;
+    }
+
+    /**
+     * Returns the number of bytes to be inflated from the source image data (see {@link CropCost#numBytesToInflate()}).
+     */
+    public long numBytesToInflate() {
+        return numBytesToInflate;
+    }
+
+    /**
+     * Returns the number of filtered bytes of the cropped image to be deflated (see {@link CropCost#numCroppedImageBytes()}).
+     */
+    public long numCroppedImageBytes() {
+        return numCroppedImageBytes;
+    }
+
+    /**
+     * Returns the predicted time of cropping with the chosen level, in nanoseconds.
+     */
+    public long predictedNanos() {
+        return predictedNanos;
+    }
+
+    /**
+     * Returns the predicted ratio of the deflated size to {@link #numCroppedImageBytes()} with the chosen level.
+     */
+    public double predictedSizeRatio() {
+        return predictedSizeRatio;
+    }
+
+    /**
+     * Returns the measured time of cropping in nanoseconds, or {@code -1} if it has not been measured.
+     */
+    public long actualNanos() {
+        return actualNanos;
+    }
+
+    /**
+     * Returns the measured time of deflating in nanoseconds, or {@code -1} if it has not been measured.
+     */
+    public long actualDeflateNanos() {
+        return actualDeflateNanos;
+    }
+
+    /**
+     * Returns the measured ratio of the deflated size to the size before deflating, or {@code NaN} if it has not been measured.
+     */
+    public double actualSizeRatio() {
+        return actualSizeRatio;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionDecision{" +
+                "level=" + level +
+                ", reason=" + reason +
+                ", numBytesToInflate=" + numBytesToInflate +
+                ", numCroppedImageBytes=" + numCroppedImageBytes +
+                ", predictedNanos=" + predictedNanos +
+                ", predictedSizeRatio=" + predictedSizeRatio +
+                ", actualNanos=" + actualNanos +
+                ", actualDeflateNanos=" + actualDeflateNanos +
+                ", actualSizeRatio=" + actualSizeRatio +
+                '}';
+    }
+}
@@ -0,0 +1,16 @@
+package me.k11i.croppng;
+
+/**
+ * Thrown when cropping is aborted by {@link CancellationToken}.
+ *
+ * <p>
+ * The {@link CropPng} object that throws this exception can be used for subsequent cropping.
+ * </p>
+ */
+public class CropCancelledException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    CropCancelledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,179 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.CropPng.Rectangle;
+
+/**
+ * Estimated cost of cropping, which is computed only from the chunk headers of the source PNG image.
+ *
+ * <p>
+ * All sizes are computed in {@code long} so that huge images do not overflow.
+ * Use {@link CropPng#estimate(byte[], int, int, int, int, int)} to get an object of this class.
+ * </p>
+ */
+public final class CropCost {
+    private final int srcWidth;
+    private final int srcHeight;
+    private final long numOutputPixels;
+    private final long numBytesToInflate;
+    private final int maxRowsWalkedBack;
+    private final long numCroppedImageBytes;
+    private final long maxOutputBytes;
+
+    private CropCost(int srcWidth, int srcHeight, long numOutputPixels, long numBytesToInflate, int maxRowsWalkedBack,
+                     long numCroppedImageBytes, long maxOutputBytes) {
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.numOutputPixels = numOutputPixels;
+        this.numBytesToInflate = numBytesToInflate;
+        this.maxRowsWalkedBack = maxRowsWalkedBack;
+        this.numCroppedImageBytes = numCroppedImageBytes;
+        this.maxOutputBytes = maxOutputBytes;
+    }
+
+    /**
+     * Computes the cost of cropping {@code rect} from the source image.
+     *
+     * @param source      source image whose {@link PngSource#head()} has been read.
+     * @param rect        rectangle to be extracted, which is already checked to be within the source image.
+     * @param scaleFactor magnification factor.
+     * @param numImages   number of images to be encoded: 1 for a static image, # of frames + 1 for an animated image
+     *                    because the default image may not be a part of the animation.
+     * @param tailBytes   number of bytes of the chunks that follow the image data.
+     */
+    static CropCost of(PngSource source, Rectangle rect, int scaleFactor, long numImages, long tailBytes) {
+        return of(source.width(), source.height(), source.head().remaining(), rect, scaleFactor, numImages, tailBytes);
+    }
+
+    /**
+     * Computes the cost of cropping {@code rect} from the source image of {@code srcWidth x srcHeight} pixels.
+     *
+     * @param headBytes number of bytes from the PNG signature up to the image data.
+     * @see #of(PngSource, Rectangle, int, long, long)
+     */
+    static CropCost of(int srcWidth, int srcHeight, long headBytes, Rectangle rect, int scaleFactor, long numImages, long tailBytes) {
+        long srcScanlineBytes = (long) srcWidth + 1;
+        long bottom = (long) rect.y + rect.height;
+        long right = (long) rect.x + rect.width;
+        long dstWidth = multiply(rect.width, scaleFactor);
+        long dstHeight = multiply(rect.height, scaleFactor);
+
+        long numBytesToInflate = rect.isEmpty() ? 0 : srcScanlineBytes * (bottom - 1) + right + 1;
+        long numCroppedImageBytes = multiply(add(dstWidth, 1), dstHeight);
+
+        long imageChunkBytes = add(12 + 4, deflateBound(numCroppedImageBytes));
+        long maxOutputBytes = add(add(headBytes, multiply(imageChunkBytes, numImages)), tailBytes);
+
+        return new CropCost(srcWidth, srcHeight, multiply(dstWidth, dstHeight),
+                numBytesToInflate, rect.y, numCroppedImageBytes, maxOutputBytes);
+    }
+
+    /**
+     * Computes the cost of composing tiles into the canvas of {@code width x height} pixels, which has a single image
+     * to be deflated but nothing to be inflated; the costs of decoding the tiles are computed for each tile.
+     *
+     * @param headBytes upper bound of the number of bytes from the PNG signature up to the image data.
+     * @param tailBytes number of bytes of the chunks that follow the image data.
+     */
+    static CropCost ofCanvas(int width, int height, long headBytes, long tailBytes) {
+        long numImageBytes = multiply(add(width, 1), height);
+        long imageChunkBytes = add(12 + 4, deflateBound(numImageBytes));
+        long maxOutputBytes = add(add(headBytes, imageChunkBytes), tailBytes);
+
+        return new CropCost(width, height, multiply(width, height), 0, 0, numImageBytes, maxOutputBytes);
+    }
+
+    /**
+     * Returns the upper bound of deflated bytes, which is the same as {@code deflateBound()} of zlib.
+     */
+    private static long deflateBound(long len) {
+        return add(len, (len >> 12) + (len >> 14) + (len >> 25) + 13);
+    }
+
+    /**
+     * Multiplies non-negative values, saturating at {@link Long#MAX_VALUE}.
+     */
+    private static long multiply(long a, long b) {
+        long hi = Math.multiplyHigh(a, b);
+        long lo = a * b;
+        return (hi != 0 || lo < 0) ? Long.MAX_VALUE : lo;
+    }
+
+    /**
+     * Adds non-negative values, saturating at {@link Long#MAX_VALUE}.
+     */
+    private static long add(long a, long b) {
+        long r = a + b;
+        return r < 0 ? Long.MAX_VALUE : r;
+    }
+
+    /**
+     * Returns the width of the source image declared in the IHDR chunk.
+     */
+    public int srcWidth() {
+        return srcWidth;
+    }
+
+    /**
+     * Returns the height of the source image declared in the IHDR chunk.
+     */
+    public int srcHeight() {
+        return srcHeight;
+    }
+
+    /**
+     * Returns the number of pixels of the cropped (and enlarged) image.
+     */
+    public long numOutputPixels() {
+        return numOutputPixels;
+    }
+
+    /**
+     * Returns the number of bytes to be inflated from the source image data.
+     */
+    public long numBytesToInflate() {
+        return numBytesToInflate;
+    }
+
+    /**
+     * Returns the worst-case number of rows above the rectangle that must be reverse-filtered
+     * to restore the top row of the rectangle.
+     */
+    public int maxRowsWalkedBack() {
+        return maxRowsWalkedBack;
+    }
+
+    /**
+     * Returns the number of filtered bytes of the cropped image, which are to be deflated.
+     */
+    public long numCroppedImageBytes() {
+        return numCroppedImageBytes;
+    }
+
+    /**
+     * Returns the upper bound of the size of the intermediate buffers: the inflated source bytes and the filtered bytes of the cropped image.
+     * Large source images are decoded row by row, whose buffers are bounded by the width of the source image instead.
+     */
+    public long intermediateBufferBytes() {
+        return add(numBytesToInflate, numCroppedImageBytes);
+    }
+
+    /**
+     * Returns the upper bound of the size of the output PNG image, assuming that the image data is not compressed at all.
+     */
+    public long maxOutputBytes() {
+        return maxOutputBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "CropCost{" +
+                "srcWidth=" + srcWidth +
+                ", srcHeight=" + srcHeight +
+                ", numOutputPixels=" + numOutputPixels +
+                ", numBytesToInflate=" + numBytesToInflate +
+                ", maxRowsWalkedBack=" + maxRowsWalkedBack +
+                ", numCroppedImageBytes=" + numCroppedImageBytes +
+                ", maxOutputBytes=" + maxOutputBytes +
+                '}';
+    }
+}
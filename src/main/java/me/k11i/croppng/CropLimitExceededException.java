@@ -0,0 +1,27 @@
+package me.k11i.croppng;
+
+/**
+ * Thrown when the cost of cropping exceeds {@link CropLimits}.
+ *
+ * <p>
+ * This exception is thrown before any image data is inflated.
+ * </p>
+ */
+public class CropLimitExceededException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final transient CropCost cost;
+
+    CropLimitExceededException(String message, CropCost cost) {
+        super(message);
+        this.cost = cost;
+    }
+
+    /**
+     * Returns the estimated cost that exceeds the limits, or {@code null} if the limits are exceeded before the cost
+     * is estimated (by the chunks read from a stream) or if this exception has been deserialized.
+     */
+    public CropCost getCost() {
+        return cost;
+    }
+}
@@ -0,0 +1,110 @@
+package me.k11i.croppng;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Hard limits on the cost of cropping, which protect against decompression bombs and huge requests.
+ *
+ * <p>
+ * {@link CropPng} checks the limits against {@link CropCost} before any image data is inflated,
+ * and throws {@link CropLimitExceededException} if any of them is exceeded.
+ * Regardless of the limits, a request whose output cannot be allocated as a Java array is always rejected.
+ * Large source images are decoded row by row, so that the number of bytes to inflate is not bounded by the array size.
+ * </p>
+ */
+public final class CropLimits {
+    /**
+     * The largest array size that can be allocated on typical JVMs.
+     */
+    static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final CropLimits UNLIMITED = new CropLimits(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private final long maxPixels;
+    private final long maxInflatedBytes;
+    private final long maxOutputBytes;
+
+    /**
+     * Returns limits that reject only requests whose output cannot be allocated as a Java array.
+     */
+    public static @NotNull CropLimits unlimited() {
+        return UNLIMITED;
+    }
+
+    /**
+     * Constructs limits.
+     *
+     * @param maxPixels        maximum number of pixels of the cropped (and enlarged) image.
+     * @param maxInflatedBytes maximum number of bytes to be inflated from the source image data.
+     * @param maxOutputBytes   maximum size of the output PNG image in the worst case (see {@link CropCost#maxOutputBytes()}).
+     */
+    public CropLimits(long maxPixels, long maxInflatedBytes, long maxOutputBytes) {
+        if (maxPixels < 1) {
+            throw new IllegalArgumentException("maxPixels must be greater than or equal to 1 but " + maxPixels);
+        }
+        if (maxInflatedBytes < 1) {
+            throw new IllegalArgumentException("maxInflatedBytes must be greater than or equal to 1 but " + maxInflatedBytes);
+        }
+        if (maxOutputBytes < 1) {
+            throw new IllegalArgumentException("maxOutputBytes must be greater than or equal to 1 but " + maxOutputBytes);
+        }
+        this.maxPixels = maxPixels;
+        this.maxInflatedBytes = maxInflatedBytes;
+        this.maxOutputBytes = maxOutputBytes;
+    }
+
+    public long maxPixels() {
+        return maxPixels;
+    }
+
+    public long maxInflatedBytes() {
+        return maxInflatedBytes;
+    }
+
+    public long maxOutputBytes() {
+        return maxOutputBytes;
+    }
+
+    /**
+     * Returns {@code true} if {@code cost} is within the limits.
+     */
+    public boolean allows(@NotNull CropCost cost) {
+        return violation(cost) == null;
+    }
+
+    /**
+     * Throws {@link CropLimitExceededException} if {@code cost} is not within the limits.
+     */
+    void check(CropCost cost) {
+        String violation = violation(cost);
+        if (violation != null) {
+            throw new CropLimitExceededException(violation, cost);
+        }
+    }
+
+    private String violation(CropCost cost) {
+        if (cost.numOutputPixels() > maxPixels) {
+            return String.format("# of output pixels must be less than or equal to %d but %d", maxPixels, cost.numOutputPixels());
+        }
+        if (cost.numBytesToInflate() > maxInflatedBytes) {
+            return String.format("# of bytes to inflate must be less than or equal to %d but %d", maxInflatedBytes, cost.numBytesToInflate());
+        }
+        if (cost.maxOutputBytes() > maxOutputBytes) {
+            return String.format("Output size must be less than or equal to %d but may be %d", maxOutputBytes, cost.maxOutputBytes());
+        }
+
+        if (cost.maxOutputBytes() > MAX_ARRAY_SIZE) {
+            return String.format("Output size may exceed the maximum array size: %d", cost.maxOutputBytes());
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "CropLimits{" +
+                "maxPixels=" + maxPixels +
+                ", maxInflatedBytes=" + maxInflatedBytes +
+                ", maxOutputBytes=" + maxOutputBytes +
+                '}';
+    }
+}
@@ -2,11 +2,19 @@ package me.k11i.croppng;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.function.IntFunction;
-import java.util.stream.IntStream;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
@@ -19,7 +27,7 @@ import static me.k11i.croppng.PngConsts.*;
  * </p>
  */
 public final class CropPng {
-    private static class Rectangle {
+    static class Rectangle {
         final int x;
         final int y;
         final int width;
@@ -47,6 +55,22 @@ public final class CropPng {
         int bottom() {
             return y + height;
         }
+
+        boolean isEmpty() {
+            return width <= 0 || height <= 0;
+        }
+
+        Rectangle intersect(int x, int y, int width, int height) {
+            int left = Math.max(this.x, x);
+            int top = Math.max(this.y, y);
+            int right = Math.min(right(), x + width);
+            int bottom = Math.min(bottom(), y + height);
+            return new Rectangle(left, top, right - left, bottom - top);
+        }
+
+        Rectangle translate(int dx, int dy) {
+            return new Rectangle(x + dx, y + dy, width, height);
+        }
     }
 
     /**
@@ -55,14 +79,47 @@ public final class CropPng {
      * This mechanism can avoid costly instantiations of {@link Deflater} class and {@link Inflater} class
      * when {@link #defaultLevel()} (or {@link #compressionLevel(int)}) is called.
      * </p>
+     * <p>
+     * The instances are created lazily by {@link #compressionLevel(int)}.
+     * The array is initialized without lambdas or streams, which would cost the bootstrap of them on cold start.
+     * </p>
+     */
+    private static final ThreadLocal<SoftReference<CropPng>>[] INSTANCES = newThreadLocals(10);
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ThreadLocal<SoftReference<CropPng>>[] newThreadLocals(int n) {
+        ThreadLocal<SoftReference<CropPng>>[] result = new ThreadLocal[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = new ThreadLocal<>();
+        }
+        return result;
+    }
+
+    /**
+     * Maximum number of inflated bytes for which the source image is decoded into a single array.
+     * Larger images are decoded row by row to bound the memory usage.
+     */
+    static final long MAX_IN_MEMORY_IMAGE_BYTES = 8L * 1024 * 1024;
+
+    /**
+     * Target number of bytes of a band, the unit in which rows are filtered and deflated.
      */
-    @SuppressWarnings("unchecked")
-    private static final ThreadLocal<SoftReference<CropPng>>[] INSTANCES = IntStream.rangeClosed(0, 9)
-            .mapToObj(level -> ThreadLocal.withInitial(() -> new SoftReference<>(new CropPng(level))))
-            .toArray((IntFunction<ThreadLocal<SoftReference<CropPng>>[]>) ThreadLocal[]::new);
+    static final int BAND_SIZE = 64 * 1024;
 
     private final Deflater deflater;
     private final Inflater inflater;
+    private final CropLimits limits;
+
+    /**
+     * Compression level of {@link #deflater}, or {@code -1} if it is given by the user.
+     */
+    private final int level;
+
+    /**
+     * Statistics into which {@link #crop(byte[], int, int, int, int, int)} measures deflating while
+     * {@link AdaptiveCompression} crops with this instance, or {@code null} not to measure it.
+     */
+    private PngWriteBuffer.DeflateStats deflateStats;
 
     /**
      * Constructs a new object or reuse previously constructed object that is cached in {@link ThreadLocal}/{@link SoftReference}.
@@ -103,11 +160,28 @@ public final class CropPng {
         return instance;
     }
 
+    /**
+     * Warms up the library to reduce the latency of the first cropping, e.g. during initialization of short-lived processes.
+     *
+     * <p>
+     * This method loads and initializes the classes, creates the cached instances for all compression levels
+     * on the calling thread (see {@link #compressionLevel(int)}), and runs every filter type and compression level
+     * a number of times with a built-in tiny image, which makes the native zlib initialized and the JIT compiler start
+     * compiling the hot paths. It takes a few tens of milliseconds.
+     * </p>
+     * <p>
+     * To reduce the class loading time as well, use the class data sharing (CDS) archive built by the {@code cdsArchive} Gradle task.
+     * </p>
+     */
+    public static void warmUp() {
+        WarmUp.run();
+    }
+
     /**
      * Constructs an object with default Deflate settings.
      */
     public CropPng() {
-        this(new Deflater());
+        this(6);
     }
 
     /**
@@ -116,11 +190,23 @@ public final class CropPng {
      * @param level compression level of Deflate algorithm (0-9).
      */
     public CropPng(int level) {
+        this(level, CropLimits.unlimited());
+    }
+
+    /**
+     * Constructs an object with specified Deflate compression level and limits on the cost of cropping.
+     *
+     * @param level  compression level of Deflate algorithm (0-9).
+     * @param limits {@link CropLimits} that are checked before cropping.
+     */
+    public CropPng(int level, @NotNull CropLimits limits) {
         if (level < 0 || level > 9) {
             throw new IllegalArgumentException("level must be between 0 and 9 but " + level);
         }
         this.deflater = new Deflater(level);
         this.inflater = new Inflater();
+        this.limits = Objects.requireNonNull(limits, "limits must be non-null");
+        this.level = level;
     }
 
     /**
@@ -129,8 +215,69 @@ public final class CropPng {
      * @param deflater {@link Deflater} object that is already configured.
      */
     public CropPng(Deflater deflater) {
+        this(deflater, CropLimits.unlimited());
+    }
+
+    /**
+     * Constructs an object that uses specified {@code Deflater} object and limits on the cost of cropping.
+     *
+     * @param deflater {@link Deflater} object that is already configured.
+     * @param limits   {@link CropLimits} that are checked before cropping.
+     */
+    public CropPng(Deflater deflater, @NotNull CropLimits limits) {
         this.deflater = deflater;
         this.inflater = new Inflater();
+        this.limits = Objects.requireNonNull(limits, "limits must be non-null");
+        this.level = -1;
+    }
+
+    /**
+     * Returns the limits on the cost of cropping, which are checked by the {@code crop} methods.
+     * Instances provided by {@link #defaultLevel()} and {@link #compressionLevel(int)} have {@link CropLimits#unlimited()}.
+     */
+    public @NotNull CropLimits limits() {
+        return limits;
+    }
+
+    Deflater deflater() {
+        return deflater;
+    }
+
+    void measureDeflation(PngWriteBuffer.DeflateStats stats) {
+        this.deflateStats = stats;
+    }
+
+    /**
+     * Estimates the cost of cropping without inflating any image data.
+     *
+     * <p>
+     * Only the PNG signature and the chunk headers of {@code src} are read.
+     * The result can be checked against limits by {@link CropLimits#allows(CropCost)}, for example
+     * to queue or reject requests by cost.
+     * </p>
+     *
+     * @param src         byte data of the source PNG image.
+     * @param x           x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y           y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width       width of the rectangle to be extracted.
+     * @param height      height of the rectangle to be extracted.
+     * @param scaleFactor magnification factor (must be > 0).
+     * @return estimated {@link CropCost}.
+     */
+    public @NotNull CropCost estimate(@NotNull byte[] src, int x, int y, int width, int height, int scaleFactor) {
+        Objects.requireNonNull(src, "src must be non-null");
+        checkScaleFactor(scaleFactor);
+
+        PngReader reader = new PngReader(src, inflater);
+        Rectangle rect = new Rectangle(x, y, width, height);
+        checkRectangle(reader, rect);
+
+        return estimate(reader, rect, scaleFactor);
+    }
+
+    static CropCost estimate(PngReader reader, Rectangle rect, int scaleFactor) {
+        long numImages = reader.isAnimated() ? Integer.toUnsignedLong(reader.numFrames()) + 1 : 1;
+        return CropCost.of(reader, rect, scaleFactor, numImages, reader.tail().remaining());
     }
 
     /**
@@ -162,100 +309,899 @@ public final class CropPng {
      * @return {@link ByteBuffer} object of PNG-encoded image.
      */
     public @NotNull ByteBuffer crop(@NotNull byte[] src, int x, int y, int width, int height, int scaleFactor) {
-        return crop0(
-                src,
-                new Rectangle(x, y, width, height),
-                scaleFactor);
+        return crop(src, x, y, width, height, scaleFactor, CancellationToken.NONE);
+    }
+
+    /**
+     * Extracts the absolute rectangular region of pixels from {@code src} PNG image, aborting when {@code cancellationToken}
+     * is cancelled or its deadline has passed.
+     *
+     * <p>
+     * The token is checked while the source image is inflated, reverse-filtered and cropped, and while the cropped image is deflated,
+     * at every block of tens of kilobytes, so that a cancelled cropping stops within a few milliseconds
+     * and an uncancelled one costs only a few additional volatile reads.
+     * When the cropping is aborted, {@link CropCancelledException} is thrown and this object can be used for subsequent cropping.
+     * </p>
+     *
+     * @param src               byte data of the source PNG image.
+     * @param x                 x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y                 y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width             width of the rectangle to be extracted.
+     * @param height            height of the rectangle to be extracted.
+     * @param scaleFactor       magnification factor (must be > 0).
+     * @param cancellationToken token to abort the cropping.
+     * @return {@link ByteBuffer} object of PNG-encoded image.
+     * @throws CropCancelledException if {@code cancellationToken} is cancelled before the cropping completes.
+     */
+    public @NotNull ByteBuffer crop(@NotNull byte[] src, int x, int y, int width, int height, int scaleFactor,
+                                    @NotNull CancellationToken cancellationToken) {
+        Objects.requireNonNull(src, "src must be non-null");
+        Objects.requireNonNull(cancellationToken, "cancellationToken must be non-null");
+        checkScaleFactor(scaleFactor);
+
+        PngReader reader = new PngReader(src, inflater);
+        Rectangle rect = new Rectangle(x, y, width, height);
+        checkRectangle(reader, rect);
+
+        return crop(reader, rect, scaleFactor, estimate(reader, rect, scaleFactor), cancellationToken);
+    }
+
+    /**
+     * Crops image from {@code reader} that has been parsed (possibly by others) and whose cost has been estimated,
+     * which lets {@link AdaptiveCompression} choose the object to crop with from the cost without parsing the image again.
+     */
+    ByteBuffer crop(PngReader reader, Rectangle rect, int scaleFactor, CropCost cost, CancellationToken cancellationToken) {
+        reader.setInflater(inflater);
+        limits.check(cost);
+
+        try {
+            cancellationToken.check();
+            reader.setCancellationToken(cancellationToken);
+
+            if (reader.isAnimated()) {
+                return new ApngCropper(reader, deflater, deflateStats).crop(rect, scaleFactor);
+            }
+
+            return crop0(reader, rect, scaleFactor, cancellationToken);
+
+        } catch (CropCancelledException e) {
+            // Releases the input of the aborted stream, so that the objects are ready for the next cropping.
+            inflater.reset();
+            deflater.reset();
+            throw e;
+        }
+    }
+
+    /**
+     * Extracts the absolute rectangular region of pixels from {@code src} PNG image, reusing the image cached in {@code tileCache}
+     * if an identical tile has been cropped before.
+     *
+     * <p>
+     * The reverse-filtered pixels of the rectangle are hashed before they are filtered and deflated (see {@link TileCache}
+     * for the key). If the hash is found, a copy of the cached image is returned; otherwise the image is encoded and cached.
+     * Animated PNG images, rectangles too far down to be decoded in memory, and objects constructed with a {@link Deflater} object
+     * (whose settings are unknown) are cropped without the cache.
+     * </p>
+     *
+     * @param src         byte data of the source PNG image.
+     * @param x           x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y           y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width       width of the rectangle to be extracted.
+     * @param height      height of the rectangle to be extracted.
+     * @param scaleFactor magnification factor (must be > 0).
+     * @param tileCache   cache of cropped images keyed by their content.
+     * @return {@link ByteBuffer} object of PNG-encoded image.
+     */
+    public @NotNull ByteBuffer crop(@NotNull byte[] src, int x, int y, int width, int height, int scaleFactor, @NotNull TileCache tileCache) {
+        Objects.requireNonNull(src, "src must be non-null");
+        Objects.requireNonNull(tileCache, "tileCache must be non-null");
+        checkScaleFactor(scaleFactor);
+
+        PngReader reader = new PngReader(src, inflater);
+        Rectangle rect = new Rectangle(x, y, width, height);
+        checkRectangle(reader, rect);
+        limits.check(estimate(reader, rect, scaleFactor));
+
+        if (reader.isAnimated()) {
+            return new ApngCropper(reader, deflater).crop(rect, scaleFactor);
+        }
+        if (level < 0 || !fitsInMemory(reader, rect)) {
+            return crop0(reader, rect, scaleFactor, CancellationToken.NONE);
+        }
+
+        byte[] srcImageBytes = inflateImage(reader, rect);
+        reverseFilter(srcImageBytes, rect, reader.width());
+
+        ByteBuffer key = TileCache.key(reader.head(), reader.tail(), srcImageBytes, reader.width(), rect, scaleFactor, level);
+        ByteBuffer result = tileCache.get(key);
+        if (result != null) {
+            return result;
+        }
+
+        byte[] croppedImageBytes = cropImage(srcImageBytes, rect, reader.width(), scaleFactor, CancellationToken.NONE);
+        result = encode(reader, croppedImageBytes, rect, scaleFactor, CancellationToken.NONE);
+        tileCache.put(key, result);
+        return result;
+    }
+
+    /**
+     * Extracts the absolute rectangular region of pixels from {@code src} PNG image, and transforms it by {@code orientation}.
+     *
+     * <p>
+     * The transform is applied while the rows of the output image are filtered, without decoding and re-encoding the cropped image.
+     * The output image is {@code height * scaleFactor} pixels wide and {@code width * scaleFactor} pixels high
+     * if {@link Orientation#swapsDimensions()} is {@code true}.
+     * Animated PNG images are supported only with {@link Orientation#NORMAL}.
+     * </p>
+     *
+     * @param src         byte data of the source PNG image.
+     * @param x           x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y           y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width       width of the rectangle to be extracted.
+     * @param height      height of the rectangle to be extracted.
+     * @param scaleFactor magnification factor (must be > 0).
+     * @param orientation transform to be applied to the extracted rectangle.
+     * @return {@link ByteBuffer} object of PNG-encoded image.
+     */
+    public @NotNull ByteBuffer crop(@NotNull byte[] src, int x, int y, int width, int height, int scaleFactor, @NotNull Orientation orientation) {
+        Objects.requireNonNull(orientation, "orientation must be non-null");
+        if (orientation == Orientation.NORMAL) {
+            return crop(src, x, y, width, height, scaleFactor);
+        }
+
+        Objects.requireNonNull(src, "src must be non-null");
+        checkScaleFactor(scaleFactor);
+
+        PngReader reader = new PngReader(src, inflater);
+        Rectangle rect = new Rectangle(x, y, width, height);
+        checkRectangle(reader, rect);
+        // The filtered bytes differ from those of the unrotated image only in the filter types of the rows.
+        limits.check(estimate(reader, rect, scaleFactor));
+
+        if (reader.isAnimated()) {
+            throw new IllegalArgumentException("Orientation " + orientation + " is not supported for animated PNG images");
+        }
+
+        return new OrientedCropper(reader, deflater).crop(rect, scaleFactor, orientation);
+    }
+
+    /**
+     * Extracts the absolute rectangular region of pixels from the reverse-filtered pixels cached by {@link PlaneCache}.
+     *
+     * <p>
+     * The rows of the rectangle are read from the mapped file, so nothing is inflated or reverse-filtered,
+     * and the source image is not copied into the heap. The result has the same pixels
+     * as {@link #crop(byte[], int, int, int, int, int)} with the source PNG image of {@code plane}.
+     * </p>
+     *
+     * @param plane       reverse-filtered pixels of the source PNG image returned by {@link PlaneCache#get(byte[])}.
+     * @param x           x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y           y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width       width of the rectangle to be extracted.
+     * @param height      height of the rectangle to be extracted.
+     * @param scaleFactor magnification factor (must be > 0).
+     * @return {@link ByteBuffer} object of PNG-encoded image.
+     */
+    public @NotNull ByteBuffer crop(@NotNull CachedPlane plane, int x, int y, int width, int height, int scaleFactor) {
+        Objects.requireNonNull(plane, "plane must be non-null");
+        checkScaleFactor(scaleFactor);
+
+        Rectangle rect = new Rectangle(x, y, width, height);
+        checkRectangle(plane.width(), plane.height(), rect);
+        limits.check(CropCost.of(plane.width(), plane.height(), plane.head().remaining(), rect, scaleFactor, 1, plane.tail().remaining()));
+
+        return plane.crop(rect, scaleFactor, deflater);
+    }
+
+    /**
+     * Extracts the absolute rectangular region of pixels from {@code src} PNG image in the pipelined mode.
+     *
+     * <p>
+     * The calling thread inflates and reverse-filters the source image and emits rows of the cropped image in blocks,
+     * while a task run on {@code executor} deflates them concurrently.
+     * This reduces the latency of large crops at the cost of an additional thread.
+     * The result is identical to {@link #crop(byte[], int, int, int, int, int)}.
+     * </p>
+     * <p>
+     * If {@code executor} runs the task on the calling thread synchronously (e.g. {@code Runnable::run}),
+     * the calling thread deflates the blocks by itself without pipelining.
+     * {@code executor} must not defer the task to the calling thread (e.g. an event loop that runs the calling code);
+     * otherwise this method will block forever.
+     * Animated PNG images are cropped without pipelining.
+     * </p>
+     *
+     * @param src         byte data of the source PNG image.
+     * @param x           x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y           y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width       width of the rectangle to be extracted.
+     * @param height      height of the rectangle to be extracted.
+     * @param scaleFactor magnification factor (must be > 0).
+     * @param executor    {@link Executor} that runs the deflating task.
+     * @return {@link ByteBuffer} object of PNG-encoded image.
+     */
+    public @NotNull ByteBuffer cropPipelined(@NotNull byte[] src, int x, int y, int width, int height, int scaleFactor, @NotNull Executor executor) {
+        Objects.requireNonNull(src, "src must be non-null");
+        Objects.requireNonNull(executor, "executor must be non-null");
+        checkScaleFactor(scaleFactor);
+
+        PngReader reader = new PngReader(src, inflater);
+        Rectangle rect = new Rectangle(x, y, width, height);
+        checkRectangle(reader, rect);
+        limits.check(estimate(reader, rect, scaleFactor));
+
+        if (reader.isAnimated()) {
+            return new ApngCropper(reader, deflater).crop(rect, scaleFactor);
+        }
+
+        return new PipelinedCropper(reader, deflater, executor).crop(rect, scaleFactor);
+    }
+
+    /**
+     * Extracts the absolute rectangular region of pixels from {@code src} PNG image at each of {@code scaleFactors}.
+     *
+     * <p>
+     * The rectangle is decoded only once, and the rows filtered for the smallest scale factor are reused
+     * to encode the other scale factors. Each result has the same pixels as {@link #crop(byte[], int, int, int, int, int)}
+     * with the scale factor. Animated PNG images are cropped for each scale factor separately.
+     * </p>
+     *
+     * @param src          byte data of the source PNG image.
+     * @param x            x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y            y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width        width of the rectangle to be extracted.
+     * @param height       height of the rectangle to be extracted.
+     * @param scaleFactors magnification factors (each must be > 0). Duplicated values are ignored.
+     * @return map from scale factor to {@link ByteBuffer} object of PNG-encoded image, in ascending order of scale factors.
+     */
+    public @NotNull Map<Integer, ByteBuffer> cropMultiScale(@NotNull byte[] src, int x, int y, int width, int height, @NotNull int... scaleFactors) {
+        return cropMultiScale0(src, x, y, width, height, scaleFactors, null);
+    }
+
+    /**
+     * Extracts the absolute rectangular region of pixels from {@code src} PNG image at each of {@code scaleFactors},
+     * deflating the images concurrently.
+     *
+     * <p>
+     * The image of the smallest scale factor is deflated on the calling thread, and the others are deflated by tasks
+     * run on {@code executor}, each of which uses the instance cached on its thread (see {@link #compressionLevel(int)}).
+     * If this object is constructed with a {@link Deflater} object, whose settings cannot be copied,
+     * all the images are deflated on the calling thread.
+     * </p>
+     *
+     * @param src          byte data of the source PNG image.
+     * @param x            x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y            y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width        width of the rectangle to be extracted.
+     * @param height       height of the rectangle to be extracted.
+     * @param scaleFactors magnification factors (each must be > 0). Duplicated values are ignored.
+     * @param executor     {@link Executor} that runs the deflating tasks.
+     * @return map from scale factor to {@link ByteBuffer} object of PNG-encoded image, in ascending order of scale factors.
+     * @see #cropMultiScale(byte[], int, int, int, int, int...)
+     */
+    public @NotNull Map<Integer, ByteBuffer> cropMultiScale(@NotNull byte[] src, int x, int y, int width, int height,
+                                                           @NotNull int[] scaleFactors, @NotNull Executor executor) {
+        Objects.requireNonNull(executor, "executor must be non-null");
+        return cropMultiScale0(src, x, y, width, height, scaleFactors, level >= 0 ? executor : null);
+    }
+
+    private Map<Integer, ByteBuffer> cropMultiScale0(byte[] src, int x, int y, int width, int height, int[] scaleFactors, Executor executor) {
+        Objects.requireNonNull(src, "src must be non-null");
+        Objects.requireNonNull(scaleFactors, "scaleFactors must be non-null");
+        if (scaleFactors.length == 0) {
+            throw new IllegalArgumentException("scaleFactors must not be empty");
+        }
+
+        int[] distinctScaleFactors = Arrays.stream(scaleFactors).sorted().distinct().toArray();
+        checkScaleFactor(distinctScaleFactors[0]);
+
+        PngReader reader = new PngReader(src, inflater);
+        Rectangle rect = new Rectangle(x, y, width, height);
+        checkRectangle(reader, rect);
+        for (int scaleFactor : distinctScaleFactors) {
+            limits.check(estimate(reader, rect, scaleFactor));
+        }
+
+        if (reader.isAnimated()) {
+            Map<Integer, ByteBuffer> result = new TreeMap<>();
+            for (int scaleFactor : distinctScaleFactors) {
+                result.put(scaleFactor, new ApngCropper(new PngReader(src, inflater), deflater).crop(rect, scaleFactor));
+            }
+            return result;
+        }
+
+        return new MultiScaleCropper(reader, deflater).crop(rect, distinctScaleFactors, level, executor);
+    }
+
+    /**
+     * Composes tiles cropped from indexed-color PNG images into one PNG image of {@code width x height} pixels.
+     *
+     * <p>
+     * Each tile is extracted (and enlarged) from its source image, and placed at its destination on the canvas.
+     * Tiles are drawn in the order of {@code tiles}, and the pixels not covered by any tile are filled with {@code backgroundArgb}.
+     * The source images are decoded row by row, so that the memory usage does not depend on the size of the canvas.
+     * </p>
+     * <p>
+     * The palettes of the source images are merged into the palette of the output image,
+     * to which {@code backgroundArgb} is added unless it already exists.
+     * If the merged palette has more than 256 colors, {@link IllegalArgumentException} is thrown.
+     * </p>
+     * <p>
+     * {@link #limits()} are checked for the canvas, as an image of {@code width x height} pixels, before any tile is decoded,
+     * and for each tile as a crop from its source image.
+     * </p>
+     *
+     * @param width          width of the canvas.
+     * @param height         height of the canvas.
+     * @param backgroundArgb background color in {@code 0xAARRGGBB} form.
+     * @param tiles          tiles to be placed, each of which must be within the canvas.
+     * @return {@link ByteBuffer} object of PNG-encoded image.
+     */
+    public @NotNull ByteBuffer compose(int width, int height, int backgroundArgb, @NotNull List<Tile> tiles) {
+        Objects.requireNonNull(tiles, "tiles must be non-null");
+        return new TileComposer(deflater, inflater, limits).compose(width, height, backgroundArgb, tiles);
+    }
+
+    /**
+     * Extracts the absolute rectangular region of pixels from {@code src} PNG image as palette indices, without encoding PNG image.
+     *
+     * <p>
+     * The indices of the extracted (and enlarged) pixels are written into {@code dst} in row-major order:
+     * the pixel {@code (i, j)} of the result is at {@code dst[dstOffset + j * width * scaleFactor + i]}.
+     * Animated PNG images are decoded as their default image.
+     * </p>
+     *
+     * @param src         byte data of the source PNG image.
+     * @param x           x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y           y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width       width of the rectangle to be extracted.
+     * @param height      height of the rectangle to be extracted.
+     * @param scaleFactor magnification factor (must be > 0).
+     * @param dst         buffer that receives {@code width * height * scaleFactor * scaleFactor} indices.
+     * @param dstOffset   offset in {@code dst} of the first pixel.
+     * @return {@link Palette} parsed from the PLTE chunk and the tRNS chunk of the source PNG image.
+     */
+    public @NotNull Palette decodeIndexed(@NotNull byte[] src, int x, int y, int width, int height, int scaleFactor,
+                                          @NotNull byte[] dst, int dstOffset) {
+        Objects.requireNonNull(dst, "dst must be non-null");
+
+        PngReader reader = new PngReader(Objects.requireNonNull(src, "src must be non-null"), inflater);
+        Rectangle rect = new Rectangle(x, y, width, height);
+        checkDecoding(reader, rect, scaleFactor, dst.length, dstOffset);
+
+        Palette palette = Palette.parse(reader.head());
+        decodeIndices(reader, rect, scaleFactor, dst, dstOffset);
+        return palette;
     }
 
-    private ByteBuffer crop0(byte[] src, Rectangle rect, int scaleFactor) {
+    /**
+     * Extracts the absolute rectangular region of pixels from {@code src} PNG image as colors in {@code 0xAARRGGBB} form,
+     * without encoding PNG image.
+     *
+     * @param dst       buffer that receives {@code width * height * scaleFactor * scaleFactor} colors.
+     * @param dstOffset offset in {@code dst} of the first pixel.
+     * @return {@link Palette} parsed from the PLTE chunk and the tRNS chunk of the source PNG image.
+     * @see #decodeIndexed(byte[], int, int, int, int, int, byte[], int)
+     */
+    public @NotNull Palette decodeArgb(@NotNull byte[] src, int x, int y, int width, int height, int scaleFactor,
+                                       @NotNull int[] dst, int dstOffset) {
+        Objects.requireNonNull(dst, "dst must be non-null");
+
+        PngReader reader = new PngReader(Objects.requireNonNull(src, "src must be non-null"), inflater);
+        Rectangle rect = new Rectangle(x, y, width, height);
+        checkDecoding(reader, rect, scaleFactor, dst.length, dstOffset);
+
+        Palette palette = Palette.parse(reader.head());
+        decodeColors(reader, rect, scaleFactor, palette.toArgbArray(), dst, dstOffset);
+        return palette;
+    }
+
+    /**
+     * Extracts the absolute rectangular region of pixels from {@code src} PNG image as colors in {@code 0xRRGGBBAA} form,
+     * without encoding PNG image.
+     *
+     * @param dst       buffer that receives {@code width * height * scaleFactor * scaleFactor} colors.
+     * @param dstOffset offset in {@code dst} of the first pixel.
+     * @return {@link Palette} parsed from the PLTE chunk and the tRNS chunk of the source PNG image.
+     * @see #decodeIndexed(byte[], int, int, int, int, int, byte[], int)
+     */
+    public @NotNull Palette decodeRgba(@NotNull byte[] src, int x, int y, int width, int height, int scaleFactor,
+                                       @NotNull int[] dst, int dstOffset) {
+        Objects.requireNonNull(dst, "dst must be non-null");
+
+        PngReader reader = new PngReader(Objects.requireNonNull(src, "src must be non-null"), inflater);
+        Rectangle rect = new Rectangle(x, y, width, height);
+        checkDecoding(reader, rect, scaleFactor, dst.length, dstOffset);
+
+        Palette palette = Palette.parse(reader.head());
+        decodeColors(reader, rect, scaleFactor, palette.toRgbaArray(), dst, dstOffset);
+        return palette;
+    }
+
+    /**
+     * Extracts the absolute rectangular region of pixels from PNG image read from {@code src} stream.
+     *
+     * <p>
+     * This method reads the stream only as far as it is needed to extract the rectangle:
+     * the chunks before the image data and the image data up to the bottom of the rectangle.
+     * If {@code keepTrailingChunks} is {@code true}, the rest of the image data is skipped and
+     * the chunks that follow it are copied to the output PNG image;
+     * otherwise the output PNG image ends with an IEND chunk and the rest of the stream is left unread.
+     * The chunks copied to the output PNG image must not exceed {@link CropLimits#maxOutputBytes()} in total,
+     * which is checked before each of them is read.
+     * </p>
+     * <p>
+     * Animated PNG images are cropped as static images of their default image: the acTL, fcTL and fdAT chunks are dropped,
+     * unlike {@link #crop(byte[], int, int, int, int, int)}, which crops every frame.
+     * </p>
+     * <p>
+     * The stream is not closed by this method.
+     * </p>
+     *
+     * @param src                stream of the source PNG image.
+     * @param x                  x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y                  y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width              width of the rectangle to be extracted.
+     * @param height             height of the rectangle to be extracted.
+     * @param scaleFactor        magnification factor (must be > 0).
+     * @param keepTrailingChunks whether to copy the chunks that follow the image data.
+     * @return {@link ByteBuffer} object of PNG-encoded image.
+     * @throws IOException if an I/O error occurs while reading {@code src}.
+     */
+    public @NotNull ByteBuffer crop(@NotNull InputStream src, int x, int y, int width, int height, int scaleFactor, boolean keepTrailingChunks) throws IOException {
         Objects.requireNonNull(src, "src must be non-null");
+        return crop(Channels.newChannel(src), x, y, width, height, scaleFactor, keepTrailingChunks);
+    }
+
+    /**
+     * Extracts the absolute rectangular region of pixels from PNG image read from {@code src} channel.
+     *
+     * @param src                channel of the source PNG image, which must be in blocking mode.
+     *                           Otherwise {@link IllegalArgumentException} is thrown instead of waiting for the bytes.
+     * @param x                  x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y                  y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width              width of the rectangle to be extracted.
+     * @param height             height of the rectangle to be extracted.
+     * @param scaleFactor        magnification factor (must be > 0).
+     * @param keepTrailingChunks whether to copy the chunks that follow the image data.
+     * @return {@link ByteBuffer} object of PNG-encoded image.
+     * @throws IOException if an I/O error occurs while reading {@code src}.
+     * @see #crop(InputStream, int, int, int, int, int, boolean)
+     */
+    public @NotNull ByteBuffer crop(@NotNull ReadableByteChannel src, int x, int y, int width, int height, int scaleFactor, boolean keepTrailingChunks) throws IOException {
+        Objects.requireNonNull(src, "src must be non-null");
+        checkScaleFactor(scaleFactor);
+
+        try {
+            PngStreamReader reader = new PngStreamReader(src, inflater, keepTrailingChunks, limits.maxOutputBytes());
+            Rectangle rect = new Rectangle(x, y, width, height);
+            checkRectangle(reader, rect);
+            // The size of the trailing chunks is unknown until they are read.
+            limits.check(CropCost.of(reader, rect, scaleFactor, 1, 0));
 
+            return crop0(reader, rect, scaleFactor, CancellationToken.NONE);
+
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static void checkScaleFactor(int scaleFactor) {
         if (scaleFactor < 1) {
             throw new IllegalArgumentException("scaleFactor must be greater than or equal to 1 but " + scaleFactor);
         }
+    }
 
-        PngReader reader = new PngReader(src, inflater);
+    static void checkRectangle(PngSource source, Rectangle rect) {
+        checkRectangle(source.width(), source.height(), rect);
+    }
 
-        if (rect.right() > reader.width()) {
+    static void checkRectangle(int srcWidth, int srcHeight, Rectangle rect) {
+        if (rect.x < 0 || rect.y < 0) {
             throw new IllegalArgumentException(
-                    String.format("'x + width' must be less than or equal to %d but %d", reader.width(), rect.right()));
+                    String.format("x and y must be greater than or equal to 0 but (%d, %d)", rect.x, rect.y));
         }
-        if (rect.bottom() > reader.height()) {
+        if (rect.width < 1 || rect.height < 1) {
             throw new IllegalArgumentException(
-                    String.format("'y + height' must be less than or equal to %d but %d", reader.height(), rect.bottom()));
+                    String.format("width and height must be greater than or equal to 1 but %d x %d", rect.width, rect.height));
         }
 
-        byte[] srcImageBytes = inflateImage(reader, rect);
-        reverseFilter(srcImageBytes, rect, reader.width());
+        // Computes in long so that overflowed coordinates are not accepted.
+        long right = (long) rect.x + rect.width;
+        long bottom = (long) rect.y + rect.height;
+
+        if (right > srcWidth) {
+            throw new IllegalArgumentException(
+                    String.format("'x + width' must be less than or equal to %d but %d", srcWidth, right));
+        }
+        if (bottom > srcHeight) {
+            throw new IllegalArgumentException(
+                    String.format("'y + height' must be less than or equal to %d but %d", srcHeight, bottom));
+        }
+    }
+
+    private ByteBuffer crop0(PngSource source, Rectangle rect, int scaleFactor, CancellationToken cancellationToken) {
+        if (!fitsInMemory(source, rect)) {
+            return cropByRows(source, rect, scaleFactor, cancellationToken);
+        }
+
+        byte[] srcImageBytes = inflateImage(source, rect);
+        reverseFilter(srcImageBytes, rect, source.width(), cancellationToken);
+
+        byte[] croppedImageBytes = cropImage(srcImageBytes, rect, source.width(), scaleFactor, cancellationToken);
+
+        return encode(source, croppedImageBytes, rect, scaleFactor, cancellationToken);
+    }
+
+    /**
+     * Returns {@code true} if the source rows up to the bottom of the rectangle are small enough to be inflated at once.
+     */
+    static boolean fitsInMemory(PngSource source, Rectangle rect) {
+        return fitsInMemory(source.width(), rect);
+    }
+
+    static boolean fitsInMemory(int srcWidth, Rectangle rect) {
+        return (srcWidth + 1L) * rect.bottom() <= MAX_IN_MEMORY_IMAGE_BYTES;
+    }
+
+    /**
+     * Crops image decoding the source rows one by one with {@link RowDecoder}, and deflates the cropped rows in bands.
+     *
+     * <p>
+     * Unlike {@link #crop0(PngSource, Rectangle, int, CancellationToken)}, which inflates all the rows above the rectangle into an array,
+     * the memory usage of this method is bounded by the width of the source image and the size of a band.
+     * </p>
+     */
+    ByteBuffer cropByRows(PngSource source, Rectangle rect, int scaleFactor, CancellationToken cancellationToken) {
+        int numDstBytesPerSrcRow = (rect.width * scaleFactor + 1) * scaleFactor;
+        int numRowsPerBand = Math.max(1, Math.min(rect.height, BAND_SIZE / numDstBytesPerSrcRow));
+        byte[] band = new byte[numDstBytesPerSrcRow * numRowsPerBand];
+
+        PngWriteBuffer buf = new PngWriteBuffer(outputSizeHint(source, rect, scaleFactor), deflater, cancellationToken)
+                .measureDeflation(deflateStats);
+        writeHeader(buf, source.head(), rect, scaleFactor);
+        buf.beginImage();
+
+        RowDecoder decoder = new RowDecoder(source, rect.right());
+        int pos = 0;
+
+        for (int y = rect.top(); y < rect.bottom(); y++) {
+            cropRow(decoder.readRow(y), decoder.rowOffset(), rect, scaleFactor, band, pos);
+            pos += numDstBytesPerSrcRow;
+
+            if (pos == band.length) {
+                buf.writeImageBytes(band, 0, pos);
+                Arrays.fill(band, (byte) 0);
+                pos = 0;
+            }
+        }
+
+        buf.writeImageBytes(band, 0, pos)
+                .endImage();
+
+        // The tail must be read after the image data has been inflated.
+        return buf.writeBytes(source.tail())
+                .toByteBuffer();
+    }
+
+    /**
+     * Checks the arguments of the decode-only methods.
+     */
+    private void checkDecoding(PngReader reader, Rectangle rect, int scaleFactor, int dstLength, int dstOffset) {
+        checkScaleFactor(scaleFactor);
+        checkRectangle(reader, rect);
+
+        CropCost cost = estimate(reader, rect, scaleFactor);
+        limits.check(cost);
+
+        if (dstOffset < 0 || dstLength - dstOffset < cost.numOutputPixels()) {
+            throw new IllegalArgumentException(
+                    String.format("dst must have %d elements from offset %d but its length is %d", cost.numOutputPixels(), dstOffset, dstLength));
+        }
+    }
+
+    /**
+     * Writes the reverse-filtered pixels (palette indices) in the rectangle into {@code dst}, enlarging them by {@code scaleFactor}.
+     * The arguments must be checked in advance.
+     */
+    static void decodeIndices(PngSource source, Rectangle rect, int scaleFactor, byte[] dst, int dstOffset) {
+        if (fitsInMemory(source, rect)) {
+            byte[] srcImageBytes = inflateImage(source, rect);
+            reverseFilter(srcImageBytes, rect, source.width());
+            expandImage(srcImageBytes, rect, source.width(), scaleFactor, dst, dstOffset);
+            return;
+        }
+
+        int numDstBytesPerSrcRow = rect.width * scaleFactor * scaleFactor;
+        RowDecoder decoder = new RowDecoder(source, rect.right());
+        for (int y = rect.top(); y < rect.bottom(); y++) {
+            expandRow(decoder.readRow(y), decoder.rowOffset(), rect, scaleFactor, dst, dstOffset + numDstBytesPerSrcRow * (y - rect.top()));
+        }
+    }
+
+    private static void decodeColors(PngSource source, Rectangle rect, int scaleFactor, int[] colors, int[] dst, int dstOffset) {
+        if (fitsInMemory(source, rect)) {
+            byte[] srcImageBytes = inflateImage(source, rect);
+            reverseFilter(srcImageBytes, rect, source.width());
+            expandImage(srcImageBytes, rect, source.width(), scaleFactor, colors, dst, dstOffset);
+            return;
+        }
+
+        int numDstPixelsPerSrcRow = rect.width * scaleFactor * scaleFactor;
+        RowDecoder decoder = new RowDecoder(source, rect.right());
+        for (int y = rect.top(); y < rect.bottom(); y++) {
+            expandRow(decoder.readRow(y), decoder.rowOffset(), rect, scaleFactor, colors, dst, dstOffset + numDstPixelsPerSrcRow * (y - rect.top()));
+        }
+    }
+
+    private static byte[] inflateImage(PngSource source, Rectangle rect) {
+        int numBytesToInflate = numBytesToInflate(rect, source.width());
+        byte[] result = new byte[numBytesToInflate];
+        source.inflate(result, 0, numBytesToInflate);
+        return result;
+    }
 
-        byte[] croppedImageBytes = cropImage(srcImageBytes, rect, reader.width(), scaleFactor);
+    static int numBytesToInflate(Rectangle rect, int srcWidth) {
+        return (srcWidth + 1) * (rect.bottom() - 1) + rect.right() + 1;
+    }
 
-        return encode(reader, croppedImageBytes, rect, scaleFactor);
+    static void reverseFilter(byte[] srcImageBytes, Rectangle rect, int srcWidth) {
+        int[] leftmostColumns = leftmostColumnsToReverseFilter(srcImageBytes, rect, srcWidth);
+        reverseFilter(srcImageBytes, rect.bottom() - leftmostColumns.length, rect.bottom(), rect, leftmostColumns, srcWidth);
     }
 
-    private byte[] inflateImage(PngReader reader, Rectangle rect) {
-        int numBytesToInflate = (reader.width() + 1) * (rect.bottom() - 1) + rect.right() + 1;
-        return reader.inflateImage(numBytesToInflate);
+    /**
+     * Reverses filtered bytes of the rows up to the bottom of the rectangle in bands, checking {@code cancellationToken} between them.
+     */
+    private static void reverseFilter(byte[] srcImageBytes, Rectangle rect, int srcWidth, CancellationToken cancellationToken) {
+        int[] leftmostColumns = leftmostColumnsToReverseFilter(srcImageBytes, rect, srcWidth);
+        int numRowsPerBand = Math.max(1, BAND_SIZE / (srcWidth + 1));
+
+        for (int row = rect.bottom() - leftmostColumns.length; row < rect.bottom(); row += numRowsPerBand) {
+            cancellationToken.check();
+            reverseFilter(srcImageBytes, row, Math.min(row + numRowsPerBand, rect.bottom()), rect, leftmostColumns, srcWidth);
+        }
     }
 
-    private void reverseFilter(byte[] srcImageBytes, Rectangle rect, int srcWidth) {
+    /**
+     * Returns the row from which reverse filtering must start so that the row {@code top} can be restored.
+     */
+    static int firstRowToReverseFilter(byte[] srcImageBytes, int top, int srcWidth) {
         int numScanlineBytes = srcWidth + 1;
-        int pos = rect.top() * numScanlineBytes;
+        int row = top;
 
-        while (pos > 0 && PngFilter.dependsOnPreviousScanline(srcImageBytes[pos])) {
-            pos -= numScanlineBytes;
+        while (row > 0 && PngFilter.dependsOnPreviousScanline(srcImageBytes[row * numScanlineBytes])) {
+            row--;
         }
 
-        if (pos == 0) {
+        return row;
+    }
+
+    /**
+     * Returns the leftmost column from which each row must be reverse-filtered so that the rectangle can be restored.
+     * The returned array holds the columns of the rows from {@link #firstRowToReverseFilter(byte[], int, int)} to the bottom of the rectangle.
+     *
+     * <p>
+     * The columns are determined from the bottom row upward: a row filtered by None or Up refers to the same column only,
+     * so it needs the columns required by the rectangle and by the row below (if that row is filtered by Up, Average or Paeth);
+     * a row filtered by Sub, Average or Paeth refers to the column on its left, so it needs every column from 0.
+     * Thus narrow crops on the right side of wide images skip most of the columns as long as the rows are filtered by None or Up.
+     * </p>
+     */
+    static int[] leftmostColumnsToReverseFilter(byte[] srcImageBytes, Rectangle rect, int srcWidth) {
+        int numScanlineBytes = srcWidth + 1;
+        int firstRow = firstRowToReverseFilter(srcImageBytes, rect.top(), srcWidth);
+        int[] result = new int[rect.bottom() - firstRow];
+
+        int column = rect.left();
+        for (int row = rect.bottom() - 1; row >= firstRow; row--) {
+            int filterType = srcImageBytes[row * numScanlineBytes];
+            int leftmostColumn = PngFilter.leftmostColumnToReverse(filterType, column);
+            result[row - firstRow] = leftmostColumn;
+
+            // The row above is required from the leftmost column of this row, which never exceeds the left of the rectangle.
+            column = PngFilter.dependsOnPreviousScanline(filterType) ? leftmostColumn : rect.left();
+        }
+
+        return result;
+    }
+
+    /**
+     * Reverses filtered bytes of the rows {@code [startRow, endRow)} from the columns returned by
+     * {@link #leftmostColumnsToReverseFilter(byte[], Rectangle, int)}.
+     * The rows before {@code startRow} must be already reverse-filtered.
+     */
+    private static void reverseFilter(byte[] srcImageBytes, int startRow, int endRow, Rectangle rect, int[] leftmostColumns, int srcWidth) {
+        int numScanlineBytes = srcWidth + 1;
+        int firstRow = rect.bottom() - leftmostColumns.length;
+        int row = startRow;
+
+        if (row == 0 && endRow > 0) {
+            // None and Up filters do nothing on the first row, so the leftmost column does not matter.
             PngFilter.reverseFirst(srcImageBytes, rect.right());
-            pos += numScanlineBytes;
+            row++;
         }
 
-        for (int limit = numScanlineBytes * rect.bottom(); pos < limit; pos += numScanlineBytes) {
-            PngFilter.reverse(srcImageBytes, pos, rect.right(), numScanlineBytes);
+        for (; row < endRow; row++) {
+            PngFilter.reverse(srcImageBytes, row * numScanlineBytes, leftmostColumns[row - firstRow], rect.right(), numScanlineBytes);
         }
     }
 
-    private static byte[] cropImage(byte[] srcImageBytes, Rectangle rect, int srcWidth, int scaleFactor) {
-        int numDstRows = rect.height * scaleFactor;
-        int numDstScanlineBytes = rect.width * scaleFactor + 1;
-        byte[] result = new byte[numDstScanlineBytes * numDstRows];
+    /**
+     * Returns filtered bytes of the cropped image, which are written in bands checking {@code cancellationToken} between them.
+     */
+    private static byte[] cropImage(byte[] srcImageBytes, Rectangle rect, int srcWidth, int scaleFactor, CancellationToken cancellationToken) {
+        byte[] result = new byte[numCroppedImageBytes(rect, scaleFactor)];
+        int numSrcScanlineBytes = srcWidth + 1;
+        int numDstBytesPerSrcRow = (rect.width * scaleFactor + 1) * scaleFactor;
+        int numRowsPerBand = Math.max(1, BAND_SIZE / numDstBytesPerSrcRow);
+
+        for (int y = rect.top(); y < rect.bottom(); y++) {
+            if ((y - rect.top()) % numRowsPerBand == 0) {
+                cancellationToken.check();
+            }
+            cropRow(srcImageBytes, numSrcScanlineBytes * y + 1, rect, scaleFactor, result, numDstBytesPerSrcRow * (y - rect.top()));
+        }
+
+        return result;
+    }
+
+    static int numCroppedImageBytes(Rectangle rect, int scaleFactor) {
+        return (rect.width * scaleFactor + 1) * rect.height * scaleFactor;
+    }
+
+    /**
+     * Writes filtered bytes of the cropped image into {@code result}, which must be zero-filled.
+     */
+    static void cropImage(byte[] srcImageBytes, Rectangle rect, int srcWidth, int scaleFactor, byte[] result) {
+        cropImage(srcImageBytes, rect, srcWidth, scaleFactor, rect.top(), rect.bottom(), result);
+    }
 
+    /**
+     * Writes filtered bytes of the cropped image that correspond to the source rows {@code [fromRow, toRow)}
+     * into {@code result} from its beginning. {@code result} must be zero-filled.
+     */
+    static void cropImage(byte[] srcImageBytes, Rectangle rect, int srcWidth, int scaleFactor, int fromRow, int toRow, byte[] result) {
         int numSrcScanlineBytes = srcWidth + 1;
+        int numDstBytesPerSrcRow = (rect.width * scaleFactor + 1) * scaleFactor;
 
-        for (int i = 0; i < numDstRows; i++) {
-            result[numDstScanlineBytes * i] = (byte) PngFilter.UP.ordinal();
+        for (int y = fromRow; y < toRow; y++) {
+            cropRow(srcImageBytes, numSrcScanlineBytes * y + 1, rect, scaleFactor, result, numDstBytesPerSrcRow * (y - fromRow));
         }
+    }
 
-        for (int y = rect.top(); y < rect.bottom(); y++) {
-            int srcPos = numSrcScanlineBytes * y + 1;
-            int dstPos = numDstScanlineBytes * (y - rect.top()) * scaleFactor;
+    /**
+     * Writes filtered bytes of the {@code scaleFactor} rows of the cropped image that correspond to a source row.
+     * The first row is filtered with SUB, and the others are filtered with UP. {@code result} must be zero-filled.
+     *
+     * @param srcRow reverse-filtered bytes that contain the source row.
+     * @param srcPos position in {@code srcRow} of the leftmost pixel of the source row.
+     * @param result buffer to store filtered bytes.
+     * @param dstPos position in {@code result} of the filter type of the first row.
+     */
+    static void cropRow(byte[] srcRow, int srcPos, Rectangle rect, int scaleFactor, byte[] result, int dstPos) {
+        int numDstScanlineBytes = rect.width * scaleFactor + 1;
+
+        for (int i = 1; i < scaleFactor; i++) {
+            result[dstPos + numDstScanlineBytes * i] = (byte) PngFilter.UP.ordinal();
+        }
+
+        result[dstPos++] = (byte) PngFilter.SUB.ordinal();
+
+        byte cur;
+        byte prev = 0;
 
-            result[dstPos++] = (byte) PngFilter.SUB.ordinal();
+        for (int x = rect.left(); x < rect.right(); x++) {
+            cur = srcRow[srcPos + x];
+            result[dstPos] = (byte) (cur - prev);
+            prev = cur;
+            dstPos += scaleFactor;
+        }
+    }
+
+    /**
+     * Writes the reverse-filtered pixels (palette indices) in the rectangle into {@code dst}, enlarging them by {@code scaleFactor}.
+     */
+    static void expandImage(byte[] srcImageBytes, Rectangle rect, int srcWidth, int scaleFactor, byte[] dst, int dstOffset) {
+        int numSrcScanlineBytes = srcWidth + 1;
+        int numDstBytesPerSrcRow = rect.width * scaleFactor * scaleFactor;
+
+        for (int y = rect.top(); y < rect.bottom(); y++) {
+            expandRow(srcImageBytes, numSrcScanlineBytes * y + 1, rect, scaleFactor, dst, dstOffset + numDstBytesPerSrcRow * (y - rect.top()));
+        }
+    }
 
-            byte cur;
-            byte prev = 0;
+    /**
+     * Writes the {@code scaleFactor} rows of the enlarged pixels (palette indices) that correspond to a source row.
+     *
+     * @param srcRow reverse-filtered bytes that contain the source row.
+     * @param srcPos position in {@code srcRow} of the leftmost pixel of the source row.
+     */
+    static void expandRow(byte[] srcRow, int srcPos, Rectangle rect, int scaleFactor, byte[] dst, int dstPos) {
+        int dstWidth = rect.width * scaleFactor;
+        int rowPos = dstPos;
+        srcPos += rect.left();
 
-            for (int x = rect.left(); x < rect.right(); x++) {
-                cur = srcImageBytes[srcPos + x];
-                result[dstPos] = (byte) (cur - prev);
-                prev = cur;
+        if (scaleFactor == 1) {
+            System.arraycopy(srcRow, srcPos, dst, dstPos, dstWidth);
+        } else {
+            for (int x = 0; x < rect.width; x++) {
+                byte index = srcRow[srcPos + x];
+                for (int i = 0; i < scaleFactor; i++) {
+                    dst[dstPos + i] = index;
+                }
                 dstPos += scaleFactor;
             }
         }
 
-        return result;
+        dstPos = rowPos + dstWidth;
+        for (int i = 1; i < scaleFactor; i++, dstPos += dstWidth) {
+            System.arraycopy(dst, rowPos, dst, dstPos, dstWidth);
+        }
+    }
+
+    /**
+     * Writes the colors of the reverse-filtered pixels in the rectangle into {@code dst}, enlarging them by {@code scaleFactor}.
+     *
+     * @param colors colors of all 256 palette entries.
+     */
+    static void expandImage(byte[] srcImageBytes, Rectangle rect, int srcWidth, int scaleFactor, int[] colors, int[] dst, int dstOffset) {
+        int numSrcScanlineBytes = srcWidth + 1;
+        int numDstPixelsPerSrcRow = rect.width * scaleFactor * scaleFactor;
+
+        for (int y = rect.top(); y < rect.bottom(); y++) {
+            expandRow(srcImageBytes, numSrcScanlineBytes * y + 1, rect, scaleFactor, colors, dst, dstOffset + numDstPixelsPerSrcRow * (y - rect.top()));
+        }
     }
 
-    private ByteBuffer encode(PngReader reader, byte[] croppedImageBytes, Rectangle rect, int scaleFactor) {
-        return new PngWriteBuffer(reader.src.limit(), deflater)
-                .writeBytes(reader.src, 0, reader.firstIDATChunkPos())
+    /**
+     * Writes the {@code scaleFactor} rows of the enlarged colors that correspond to a source row.
+     *
+     * @param srcRow reverse-filtered bytes that contain the source row.
+     * @param srcPos position in {@code srcRow} of the leftmost pixel of the source row.
+     * @param colors colors of all 256 palette entries.
+     */
+    static void expandRow(byte[] srcRow, int srcPos, Rectangle rect, int scaleFactor, int[] colors, int[] dst, int dstPos) {
+        int dstWidth = rect.width * scaleFactor;
+        int rowPos = dstPos;
+        srcPos += rect.left();
+
+        for (int x = 0; x < rect.width; x++) {
+            int color = colors[srcRow[srcPos + x] & 0xff];
+            for (int i = 0; i < scaleFactor; i++) {
+                dst[dstPos + i] = color;
+            }
+            dstPos += scaleFactor;
+        }
+
+        for (int i = 1; i < scaleFactor; i++, dstPos += dstWidth) {
+            System.arraycopy(dst, rowPos, dst, dstPos, dstWidth);
+        }
+    }
+
+    /**
+     * Returns the initial size of the output buffer, which is the upper bound of the size of the output image estimated by {@link CropCost}
+     * but not more than the size of the source image, so that the buffer does not depend on the rows above the rectangle.
+     */
+    static int outputSizeHint(PngSource source, Rectangle rect, int scaleFactor) {
+        long maxOutputBytes = CropCost.of(source, rect, scaleFactor, 1, 0).maxOutputBytes();
+        return (int) Math.min(maxOutputBytes, source.sizeHint());
+    }
+
+    static void writeHeader(PngWriteBuffer buf, ByteBuffer head, Rectangle rect, int scaleFactor) {
+        buf.writeBytes(head)
                 .writeIntAt(rect.width * scaleFactor, IHDR_WIDTH_POS)
                 .writeIntAt(rect.height * scaleFactor, IHDR_HEIGHT_POS)
-                .updateCRC(IHDR_CHUNK_POS + 4, IHDR_CHUNK_LEN + 4, false)
-                .writeImage(croppedImageBytes)
-                .writeBytes(reader.src, reader.afterIDATChunkPos(), reader.src.limit() - reader.afterIDATChunkPos())
+                .updateCRC(IHDR_CHUNK_POS + 4, IHDR_CHUNK_LEN + 4, false);
+    }
+
+    private ByteBuffer encode(PngSource source, byte[] croppedImageBytes, Rectangle rect, int scaleFactor, CancellationToken cancellationToken) {
+        PngWriteBuffer buf = new PngWriteBuffer(outputSizeHint(source, rect, scaleFactor), deflater, cancellationToken)
+                .measureDeflation(deflateStats);
+        writeHeader(buf, source.head(), rect, scaleFactor);
+        buf.writeImage(croppedImageBytes);
+
+        // The tail must be read after the image data has been inflated.
+        return buf.writeBytes(source.tail())
                 .toByteBuffer();
     }
 }
@@ -0,0 +1,155 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.CropPng.Rectangle;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+
+/**
+ * Crops the same rectangle at several scale factors, decoding the source image only once.
+ *
+ * <p>
+ * The rectangle is decoded into the filtered bytes of the cropped image at scale factor 1,
+ * whose rows are filtered with SUB. Since the rows of an enlarged image are the same SUB rows whose deltas are
+ * spread at intervals of the scale factor (followed by UP rows of zeros), every scale factor is encoded from these bytes
+ * without reverse-filtering and filtering the rectangle again.
+ * </p>
+ * <p>
+ * If an {@link Executor} is given, the scale factors except the first one are deflated concurrently
+ * with the {@link Deflater}s of the instances cached on the threads of the executor (see {@link CropPng#compressionLevel(int)}).
+ * </p>
+ */
+class MultiScaleCropper {
+    private final PngSource source;
+    private final Deflater deflater;
+
+    MultiScaleCropper(PngSource source, Deflater deflater) {
+        this.source = source;
+        this.deflater = deflater;
+    }
+
+    /**
+     * @param scaleFactors distinct scale factors in ascending order.
+     * @param level        compression level of the {@link Deflater}s used on the threads of {@code executor}.
+     * @param executor     {@link Executor} to deflate concurrently, or {@code null} to deflate on the calling thread.
+     */
+    Map<Integer, ByteBuffer> crop(Rectangle rect, int[] scaleFactors, int level, Executor executor) {
+        byte[] baseImageBytes = decode(rect);
+        ByteBuffer head = source.head();
+        ByteBuffer tail = source.tail();
+
+        List<CompletableFuture<ByteBuffer>> futures = new ArrayList<>();
+        if (executor != null) {
+            for (int i = 1; i < scaleFactors.length; i++) {
+                int scaleFactor = scaleFactors[i];
+                futures.add(CompletableFuture.supplyAsync(
+                        () -> encode(head, tail, baseImageBytes, rect, scaleFactor, CropPng.compressionLevel(level).deflater()),
+                        executor));
+            }
+        }
+
+        Map<Integer, ByteBuffer> result = new TreeMap<>();
+        result.put(scaleFactors[0], encode(head, tail, baseImageBytes, rect, scaleFactors[0], deflater));
+
+        for (int i = 1; i < scaleFactors.length; i++) {
+            if (executor == null) {
+                result.put(scaleFactors[i], encode(head, tail, baseImageBytes, rect, scaleFactors[i], deflater));
+                continue;
+            }
+
+            try {
+                result.put(scaleFactors[i], futures.get(i - 1).join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the filtered bytes of the cropped image at scale factor 1.
+     */
+    private byte[] decode(Rectangle rect) {
+        byte[] result = new byte[CropPng.numCroppedImageBytes(rect, 1)];
+        int numDstScanlineBytes = rect.width + 1;
+
+        if (CropPng.fitsInMemory(source, rect)) {
+            int numBytesToInflate = CropPng.numBytesToInflate(rect, source.width());
+            byte[] srcImageBytes = new byte[numBytesToInflate];
+            source.inflate(srcImageBytes, 0, numBytesToInflate);
+            CropPng.reverseFilter(srcImageBytes, rect, source.width());
+            CropPng.cropImage(srcImageBytes, rect, source.width(), 1, result);
+            return result;
+        }
+
+        RowDecoder decoder = new RowDecoder(source, rect.right());
+        for (int y = rect.top(); y < rect.bottom(); y++) {
+            CropPng.cropRow(decoder.readRow(y), decoder.rowOffset(), rect, 1, result, numDstScanlineBytes * (y - rect.top()));
+        }
+        return result;
+    }
+
+    private ByteBuffer encode(ByteBuffer head, ByteBuffer tail, byte[] baseImageBytes, Rectangle rect, int scaleFactor, Deflater deflater) {
+        PngWriteBuffer buf = new PngWriteBuffer(CropPng.outputSizeHint(source, rect, scaleFactor), deflater);
+        CropPng.writeHeader(buf, head, rect, scaleFactor);
+        buf.beginImage();
+
+        if (scaleFactor == 1) {
+            buf.writeImageBytes(baseImageBytes, 0, baseImageBytes.length);
+
+        } else {
+            int numDstBytesPerSrcRow = (rect.width * scaleFactor + 1) * scaleFactor;
+            int numRowsPerBand = Math.max(1, Math.min(rect.height, CropPng.BAND_SIZE / numDstBytesPerSrcRow));
+            byte[] band = new byte[numDstBytesPerSrcRow * numRowsPerBand];
+            int pos = 0;
+
+            for (int y = 0; y < rect.height; y++) {
+                enlargeRow(baseImageBytes, (rect.width + 1) * y, rect.width, scaleFactor, band, pos);
+                pos += numDstBytesPerSrcRow;
+
+                if (pos == band.length) {
+                    buf.writeImageBytes(band, 0, pos);
+                    Arrays.fill(band, (byte) 0);
+                    pos = 0;
+                }
+            }
+            buf.writeImageBytes(band, 0, pos);
+        }
+
+        return buf.endImage()
+                .writeBytes(tail)
+                .toByteBuffer();
+    }
+
+    /**
+     * Writes the {@code scaleFactor} rows enlarged from a SUB row of the cropped image at scale factor 1,
+     * which are the same as those written by {@link CropPng#cropRow(byte[], int, Rectangle, int, byte[], int)}.
+     * {@code result} must be zero-filled.
+     */
+    static void enlargeRow(byte[] baseImageBytes, int srcPos, int width, int scaleFactor, byte[] result, int dstPos) {
+        int numDstScanlineBytes = width * scaleFactor + 1;
+
+        for (int i = 1; i < scaleFactor; i++) {
+            result[dstPos + numDstScanlineBytes * i] = (byte) PngFilter.UP.ordinal();
+        }
+
+        result[dstPos++] = baseImageBytes[srcPos++];
+
+        for (int x = 0; x < width; x++) {
+            result[dstPos] = baseImageBytes[srcPos + x];
+            dstPos += scaleFactor;
+        }
+    }
+}
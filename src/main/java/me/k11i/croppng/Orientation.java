@@ -0,0 +1,93 @@
+package me.k11i.croppng;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Geometric transform applied to the cropped image by {@link CropPng#crop(byte[], int, int, int, int, int, Orientation)},
+ * which corresponds to the orientation values of EXIF.
+ *
+ * <p>
+ * Every transform is expressed as an optional transposition (swapping x and y) followed by optional horizontal and vertical flips.
+ * </p>
+ */
+public enum Orientation {
+    /**
+     * No transform (EXIF orientation 1).
+     */
+    NORMAL(1, false, false, false),
+
+    /**
+     * Mirrors horizontally (EXIF orientation 2).
+     */
+    FLIP_HORIZONTAL(2, false, true, false),
+
+    /**
+     * Rotates 180 degrees (EXIF orientation 3).
+     */
+    ROTATE_180(3, false, true, true),
+
+    /**
+     * Mirrors vertically (EXIF orientation 4).
+     */
+    FLIP_VERTICAL(4, false, false, true),
+
+    /**
+     * Mirrors along the top-left to bottom-right diagonal (EXIF orientation 5).
+     */
+    TRANSPOSE(5, true, false, false),
+
+    /**
+     * Rotates 90 degrees clockwise (EXIF orientation 6).
+     */
+    ROTATE_90(6, true, true, false),
+
+    /**
+     * Mirrors along the top-right to bottom-left diagonal (EXIF orientation 7).
+     */
+    TRANSVERSE(7, true, true, true),
+
+    /**
+     * Rotates 270 degrees clockwise (EXIF orientation 8).
+     */
+    ROTATE_270(8, true, false, true);
+
+    private static final Orientation[] BY_EXIF_VALUE = {
+            null, NORMAL, FLIP_HORIZONTAL, ROTATE_180, FLIP_VERTICAL, TRANSPOSE, ROTATE_90, TRANSVERSE, ROTATE_270,
+    };
+
+    private final int exifValue;
+    final boolean transposes;
+    final boolean flipsHorizontally;
+    final boolean flipsVertically;
+
+    Orientation(int exifValue, boolean transposes, boolean flipsHorizontally, boolean flipsVertically) {
+        this.exifValue = exifValue;
+        this.transposes = transposes;
+        this.flipsHorizontally = flipsHorizontally;
+        this.flipsVertically = flipsVertically;
+    }
+
+    /**
+     * Returns the orientation value of EXIF (1-8).
+     */
+    public int exifValue() {
+        return exifValue;
+    }
+
+    /**
+     * Returns {@code true} if this transform swaps the width and the height of the image.
+     */
+    public boolean swapsDimensions() {
+        return transposes;
+    }
+
+    /**
+     * Returns the orientation of the given EXIF orientation value (1-8).
+     */
+    public static @NotNull Orientation ofExifValue(int exifValue) {
+        if (exifValue < 1 || exifValue >= BY_EXIF_VALUE.length) {
+            throw new IllegalArgumentException("exifValue must be between 1 and 8 but " + exifValue);
+        }
+        return BY_EXIF_VALUE[exifValue];
+    }
+}
@@ -0,0 +1,142 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.CropPng.Rectangle;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Crops image applying {@link Orientation}.
+ *
+ * <p>
+ * The rectangle is decoded into a compact plane of palette indices ({@code width x height} bytes).
+ * For the orientations that swap the dimensions, the columns of the plane that make up a band of the output are transposed
+ * block by block into a strip as large as the band, so that both the reads and the writes stay within a few cache lines at a time,
+ * and the memory usage does not double. Then every orientation is reduced to reading the rows of the (transposed) plane
+ * forward or backward, from the top or from the bottom, which are filtered and enlarged directly into the output rows
+ * in the same way as {@link CropPng#cropRow(byte[], int, Rectangle, int, byte[], int)}.
+ * </p>
+ */
+class OrientedCropper {
+    /**
+     * Size of the square blocks of the blocked transposition, which fit in L1 cache.
+     */
+    private static final int TRANSPOSE_BLOCK_SIZE = 64;
+
+    private final PngSource source;
+    private final Deflater deflater;
+
+    OrientedCropper(PngSource source, Deflater deflater) {
+        this.source = source;
+        this.deflater = deflater;
+    }
+
+    ByteBuffer crop(Rectangle rect, int scaleFactor, Orientation orientation) {
+        byte[] plane = new byte[rect.width * rect.height];
+        CropPng.decodeIndices(source, rect, 1, plane, 0);
+
+        int planeWidth = orientation.transposes ? rect.height : rect.width;
+        int planeHeight = orientation.transposes ? rect.width : rect.height;
+
+        int numDstBytesPerPlaneRow = (planeWidth * scaleFactor + 1) * scaleFactor;
+        int numRowsPerBand = Math.max(1, Math.min(planeHeight, CropPng.BAND_SIZE / numDstBytesPerPlaneRow));
+        byte[] band = new byte[numDstBytesPerPlaneRow * numRowsPerBand];
+
+        // Rows [stripTop, stripTop + numRowsPerBand) of the transposed plane, which are the columns of the plane.
+        byte[] strip = orientation.transposes ? new byte[planeWidth * numRowsPerBand] : null;
+        int stripTop = 0;
+
+        Rectangle dstRect = new Rectangle(0, 0, planeWidth, planeHeight);
+        PngWriteBuffer buf = new PngWriteBuffer(CropPng.outputSizeHint(source, dstRect, scaleFactor), deflater);
+        CropPng.writeHeader(buf, source.head(), dstRect, scaleFactor);
+        buf.beginImage();
+
+        int pos = 0;
+        for (int i = 0; i < planeHeight; i++) {
+            int row = orientation.flipsVertically ? planeHeight - 1 - i : i;
+
+            if (strip == null) {
+                writeRow(plane, planeWidth * row, planeWidth, orientation.flipsHorizontally, scaleFactor, band, pos);
+            } else {
+                if (i % numRowsPerBand == 0) {
+                    int numRows = Math.min(numRowsPerBand, planeHeight - i);
+                    stripTop = orientation.flipsVertically ? planeHeight - i - numRows : i;
+                    transpose(plane, rect.width, rect.height, stripTop, stripTop + numRows, strip);
+                }
+                writeRow(strip, planeWidth * (row - stripTop), planeWidth, orientation.flipsHorizontally, scaleFactor, band, pos);
+            }
+            pos += numDstBytesPerPlaneRow;
+
+            if (pos == band.length) {
+                buf.writeImageBytes(band, 0, pos);
+                Arrays.fill(band, (byte) 0);
+                pos = 0;
+            }
+        }
+
+        buf.writeImageBytes(band, 0, pos)
+                .endImage();
+
+        // The tail must be read after the image data has been inflated.
+        return buf.writeBytes(source.tail())
+                .toByteBuffer();
+    }
+
+    /**
+     * Writes the columns {@code [fromColumn, toColumn)} of {@code src} of {@code width x height} bytes into {@code dst}
+     * transposed, in square blocks: column {@code x} becomes the row {@code x - fromColumn} of {@code height} bytes.
+     */
+    static void transpose(byte[] src, int width, int height, int fromColumn, int toColumn, byte[] dst) {
+        for (int by = 0; by < height; by += TRANSPOSE_BLOCK_SIZE) {
+            int blockBottom = Math.min(by + TRANSPOSE_BLOCK_SIZE, height);
+
+            for (int bx = fromColumn; bx < toColumn; bx += TRANSPOSE_BLOCK_SIZE) {
+                int blockRight = Math.min(bx + TRANSPOSE_BLOCK_SIZE, toColumn);
+
+                for (int y = by; y < blockBottom; y++) {
+                    int srcPos = width * y;
+                    for (int x = bx; x < blockRight; x++) {
+                        dst[height * (x - fromColumn) + y] = src[srcPos + x];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the {@code scaleFactor} rows of the output image that correspond to a row of the plane:
+     * the first one is filtered with SUB, and the others are filtered with UP. {@code result} must be zero-filled.
+     *
+     * @param reverse whether to read the row of the plane from right to left.
+     */
+    static void writeRow(byte[] plane, int srcPos, int width, boolean reverse, int scaleFactor, byte[] result, int dstPos) {
+        int numDstScanlineBytes = width * scaleFactor + 1;
+
+        for (int i = 1; i < scaleFactor; i++) {
+            result[dstPos + numDstScanlineBytes * i] = (byte) PngFilter.UP.ordinal();
+        }
+
+        result[dstPos++] = (byte) PngFilter.SUB.ordinal();
+
+        byte cur;
+        byte prev = 0;
+
+        if (reverse) {
+            for (int x = width - 1; x >= 0; x--) {
+                cur = plane[srcPos + x];
+                result[dstPos] = (byte) (cur - prev);
+                prev = cur;
+                dstPos += scaleFactor;
+            }
+
+        } else {
+            for (int x = 0; x < width; x++) {
+                cur = plane[srcPos + x];
+                result[dstPos] = (byte) (cur - prev);
+                prev = cur;
+                dstPos += scaleFactor;
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package me.k11i.croppng;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static me.k11i.croppng.PngConsts.*;
+
+/**
+ * Palette of indexed-color PNG image, which is parsed from the PLTE chunk and the tRNS chunk.
+ *
+ * <p>
+ * The entries that are not covered by the tRNS chunk are fully opaque.
+ * Indices that are not defined in the PLTE chunk are treated as opaque black.
+ * </p>
+ */
+public final class Palette {
+    private static final int OPAQUE_BLACK = 0xff00_0000;
+
+    private final int size;
+    private final int[] argb;
+
+    private Palette(int size, int[] argb) {
+        this.size = size;
+        this.argb = argb;
+    }
+
+    /**
+     * Parses the PLTE chunk and the tRNS chunk in the chunks before the image data.
+     *
+     * @param head buffer that starts with the PNG signature and ends before the first IDAT chunk.
+     */
+    static Palette parse(ByteBuffer head) {
+        int[] argb = new int[256];
+        Arrays.fill(argb, OPAQUE_BLACK);
+
+        int size = -1;
+        int trnsPos = -1;
+
+        for (int pos = AFTER_IHDR_CHUNK_POS; pos + 8 <= head.limit(); pos += 8 + head.getInt(pos) + 4) {
+            int chunkType = head.getInt(pos + 4);
+
+            if (chunkType == CHUNK_TYPE_PLTE) {
+                int len = head.getInt(pos);
+                if (len % 3 != 0 || len > 256 * 3) {
+                    throw new IllegalArgumentException("Bad PLTE length: " + len);
+                }
+
+                size = len / 3;
+                for (int i = 0, p = pos + 8; i < size; i++, p += 3) {
+                    argb[i] = OPAQUE_BLACK
+                            | (head.get(p) & 0xff) << 16
+                            | (head.get(p + 1) & 0xff) << 8
+                            | (head.get(p + 2) & 0xff);
+                }
+
+            } else if (chunkType == CHUNK_TYPE_TRNS) {
+                trnsPos = pos;
+            }
+        }
+
+        if (size < 0) {
+            throw new IllegalArgumentException("The PLTE chunk must appear before the IDAT chunk, but does not appear.");
+        }
+
+        if (trnsPos >= 0) {
+            for (int i = 0, len = Math.min(head.getInt(trnsPos), size); i < len; i++) {
+                argb[i] = (argb[i] & 0x00ff_ffff) | (head.get(trnsPos + 8 + i) & 0xff) << 24;
+            }
+        }
+
+        return new Palette(size, argb);
+    }
+
+    /**
+     * Returns the number of entries defined in the PLTE chunk.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the color of the entry in {@code 0xAARRGGBB} form.
+     *
+     * @param index index of the entry (0-255).
+     */
+    public int argb(int index) {
+        return argb[index];
+    }
+
+    /**
+     * Returns the color of the entry in {@code 0xRRGGBBAA} form.
+     *
+     * @param index index of the entry (0-255).
+     */
+    public int rgba(int index) {
+        return Integer.rotateLeft(argb[index], 8);
+    }
+
+    /**
+     * Returns {@code true} if any entry is not fully opaque.
+     */
+    public boolean hasAlpha() {
+        for (int i = 0; i < size; i++) {
+            if ((argb[i] >>> 24) != 0xff) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the colors of all 256 entries in {@code 0xAARRGGBB} form.
+     */
+    public @NotNull int[] toArgbArray() {
+        return argb.clone();
+    }
+
+    /**
+     * Returns the colors of all 256 entries in {@code 0xRRGGBBAA} form.
+     */
+    public @NotNull int[] toRgbaArray() {
+        int[] result = new int[argb.length];
+        for (int i = 0; i < argb.length; i++) {
+            result[i] = Integer.rotateLeft(argb[i], 8);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,189 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.CropPng.Rectangle;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+/**
+ * Crops image in two pipelined stages.
+ *
+ * <p>
+ * The calling thread (producer) decodes the source image row by row with {@link RowDecoder},
+ * and emits the filtered rows of the cropped image through a bounded ring of blocks.
+ * A task run on the {@link Executor} (consumer) deflates the blocks concurrently,
+ * so that the latency approaches the larger of decoding time and encoding time instead of their sum.
+ * </p>
+ * <p>
+ * If the executor runs the task on the calling thread (e.g. {@code Runnable::run} or the caller-runs policy of a saturated pool),
+ * the producer cannot wait for the consumer; the calling thread then deflates every block as soon as it is filled.
+ * </p>
+ */
+class PipelinedCropper {
+    private static final int TARGET_BLOCK_SIZE = 64 * 1024;
+    private static final int NUM_BLOCKS = 4;
+
+    private static class Block {
+        final byte[] bytes;
+        int len;
+
+        Block(int size) {
+            this.bytes = new byte[size];
+        }
+    }
+
+    private static final Block END_OF_IMAGE = new Block(0);
+
+    private final PngSource source;
+    private final Deflater deflater;
+    private final Executor executor;
+
+    PipelinedCropper(PngSource source, Deflater deflater, Executor executor) {
+        this.source = source;
+        this.deflater = deflater;
+        this.executor = executor;
+    }
+
+    ByteBuffer crop(Rectangle rect, int scaleFactor) {
+        int numDstBytesPerSrcRow = (rect.width * scaleFactor + 1) * scaleFactor;
+        int numRowsPerBlock = Math.max(1, Math.min(rect.height, TARGET_BLOCK_SIZE / numDstBytesPerSrcRow));
+
+        BlockingQueue<Block> freeBlocks = new ArrayBlockingQueue<>(NUM_BLOCKS);
+        BlockingQueue<Block> filledBlocks = new ArrayBlockingQueue<>(NUM_BLOCKS + 1);
+        for (int i = 0; i < NUM_BLOCKS; i++) {
+            freeBlocks.add(new Block(numDstBytesPerSrcRow * numRowsPerBlock));
+        }
+
+        PngWriteBuffer buf = new PngWriteBuffer(CropPng.outputSizeHint(source, rect, scaleFactor), deflater);
+        CropPng.writeHeader(buf, source.head(), rect, scaleFactor);
+        buf.beginImage();
+
+        Thread caller = Thread.currentThread();
+        AtomicBoolean ranInline = new AtomicBoolean();
+        CompletableFuture<Void> consumer = CompletableFuture.runAsync(() -> {
+            if (Thread.currentThread() == caller) {
+                ranInline.set(true);
+                return;
+            }
+            deflate(buf, freeBlocks, filledBlocks);
+        }, executor);
+
+        if (ranInline.get()) {
+            produce(rect, scaleFactor, numRowsPerBlock, numDstBytesPerSrcRow, freeBlocks, consumer, block -> {
+                buf.writeImageBytes(block.bytes, 0, block.len);
+                freeBlocks.add(block);
+            });
+
+            return buf.endImage()
+                    .writeBytes(source.tail())
+                    .toByteBuffer();
+        }
+
+        try {
+            produce(rect, scaleFactor, numRowsPerBlock, numDstBytesPerSrcRow, freeBlocks, consumer, filledBlocks::add);
+
+        } catch (RuntimeException e) {
+            // Wait for the consumer so that the Deflater is no longer used when this method returns.
+            filledBlocks.add(END_OF_IMAGE);
+            consumer.exceptionally(ignore -> null).join();
+            throw e;
+        }
+
+        // The queue always has room for the end marker because its capacity is larger than the number of blocks.
+        filledBlocks.add(END_OF_IMAGE);
+
+        try {
+            consumer.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+
+        return buf.endImage()
+                .writeBytes(source.tail())
+                .toByteBuffer();
+    }
+
+    /**
+     * Fills the blocks with the rows of the cropped image, and passes each of them to {@code emit}.
+     */
+    private void produce(Rectangle rect, int scaleFactor, int numRowsPerBlock, int numDstBytesPerSrcRow,
+                         BlockingQueue<Block> freeBlocks, CompletableFuture<Void> consumer, Consumer<Block> emit) {
+        RowDecoder decoder = new RowDecoder(source, rect.right());
+
+        for (int fromRow = rect.top(); fromRow < rect.bottom(); fromRow += numRowsPerBlock) {
+            int toRow = Math.min(fromRow + numRowsPerBlock, rect.bottom());
+
+            Block block = takeFreeBlock(freeBlocks, consumer);
+            block.len = numDstBytesPerSrcRow * (toRow - fromRow);
+            Arrays.fill(block.bytes, 0, block.len, (byte) 0);
+            for (int y = fromRow; y < toRow; y++) {
+                CropPng.cropRow(decoder.readRow(y), decoder.rowOffset(), rect, scaleFactor, block.bytes, numDstBytesPerSrcRow * (y - fromRow));
+            }
+            emit.accept(block);
+        }
+    }
+
+    private static Block takeFreeBlock(BlockingQueue<Block> freeBlocks, CompletableFuture<Void> consumer) {
+        try {
+            while (true) {
+                Block block = freeBlocks.poll(10, TimeUnit.MILLISECONDS);
+                if (block != null) {
+                    return block;
+                }
+                if (consumer.isDone()) {
+                    // The consumer has terminated abnormally.
+                    consumer.join();
+                    throw new IllegalStateException("Deflating task has terminated unexpectedly");
+                }
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while cropping image", e);
+        }
+    }
+
+    private static void deflate(PngWriteBuffer buf, BlockingQueue<Block> freeBlocks, BlockingQueue<Block> filledBlocks) {
+        RuntimeException failure = null;
+
+        while (true) {
+            Block block;
+            try {
+                block = filledBlocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while deflating image", e);
+            }
+
+            if (block == END_OF_IMAGE) {
+                break;
+            }
+
+            if (failure == null) {
+                try {
+                    buf.writeImageBytes(block.bytes, 0, block.len);
+                } catch (RuntimeException e) {
+                    // Keep draining blocks so that the producer is not blocked forever.
+                    failure = e;
+                }
+            }
+            freeBlocks.add(block);
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package me.k11i.croppng;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.Inflater;
+
+/**
+ * On-disk cache of the reverse-filtered pixels of source PNG images, keyed by the SHA-256 hash of the source images.
+ *
+ * <p>
+ * On a miss, the whole source image is decoded once and stored into a file of the directory (see {@link CachedPlane}
+ * for the format), which is written to a temporary file and renamed so that a file is never seen half-written.
+ * The decoding is checked against {@link CropLimits} as cropping of the whole image at the scale factor 1.
+ * The files are mapped into memory, so that the planes are held by the page cache instead of the heap.
+ * </p>
+ * <p>
+ * The total size of the files is bounded by {@code maxBytes}: the least recently used files are deleted when a new file is added.
+ * Since the files are kept across restarts, a new instance on the same directory starts with the files written before,
+ * in the order of their last modified time. The recency is tracked in memory, and the last modified time of a file is updated
+ * on a hit at most once per {@code TOUCH_INTERVAL_MILLIS}, outside the lock, so that hits do not wait for the file system.
+ * Planes that have already been returned stay valid after their files are deleted, as long as the platform allows deleting mapped files.
+ * </p>
+ * <p>
+ * Animated PNG images are not supported. Instances of this class are thread-safe,
+ * but the directory must not be shared by other instances at the same time.
+ * </p>
+ */
+public final class PlaneCache {
+    private static final String FILE_SUFFIX = ".plane";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    /**
+     * Minimum interval at which the last modified time of a file is updated on hits, in milliseconds.
+     */
+    private static final long TOUCH_INTERVAL_MILLIS = 60_000;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final CropLimits limits;
+
+    // The followings are guarded by this.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private static class Entry {
+        final long size;
+        CachedPlane plane;
+
+        /**
+         * Time when the last modified time of the file was updated, or {@code 0} if it was written by the previous instances.
+         */
+        long touchedMillis;
+
+        Entry(long size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * Opens the cache on {@code directory}, which is created if it does not exist.
+     *
+     * @param directory directory to store the files.
+     * @param maxBytes  maximum total size of the files (must be > 0).
+     * @throws IOException if an I/O error occurs while listing or creating the directory.
+     */
+    public PlaneCache(@NotNull Path directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, CropLimits.unlimited());
+    }
+
+    /**
+     * Opens the cache on {@code directory} with limits on the cost of decoding a source image on a miss.
+     *
+     * @param directory directory to store the files.
+     * @param maxBytes  maximum total size of the files (must be > 0).
+     * @param limits    {@link CropLimits} that are checked before decoding a source image.
+     * @throws IOException if an I/O error occurs while listing or creating the directory.
+     */
+    public PlaneCache(@NotNull Path directory, long maxBytes, @NotNull CropLimits limits) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be greater than 0 but " + maxBytes);
+        }
+
+        this.directory = Files.createDirectories(Objects.requireNonNull(directory, "directory must be non-null"));
+        this.maxBytes = maxBytes;
+        this.limits = Objects.requireNonNull(limits, "limits must be non-null");
+
+        load();
+        evict(null);
+    }
+
+    /**
+     * Registers the files written by the previous instances from the least recently used one, and deletes temporary files.
+     */
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(FILE_SUFFIX)) {
+                    files.add(path);
+                } else if (name.endsWith(TEMP_FILE_SUFFIX)) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+
+        files.sort(Comparator.comparing(PlaneCache::lastModifiedTime));
+        for (Path path : files) {
+            String name = path.getFileName().toString();
+            long size = Files.size(path);
+            entries.put(name.substring(0, name.length() - FILE_SUFFIX.length()), new Entry(size));
+            totalBytes += size;
+        }
+    }
+
+    /**
+     * Returns the plane of {@code src} PNG image, decoding and storing it if it is not cached.
+     *
+     * @param src byte data of the source PNG image.
+     * @return {@link CachedPlane} object to be cropped by {@link CropPng#crop(CachedPlane, int, int, int, int, int)}.
+     * @throws IOException                if an I/O error occurs while reading or writing the file.
+     * @throws CropLimitExceededException if the plane is not cached and the cost of decoding it is not within the limits.
+     */
+    public @NotNull CachedPlane get(@NotNull byte[] src) throws IOException {
+        String key = key(Objects.requireNonNull(src, "src must be non-null"));
+
+        CachedPlane plane = getIfPresent(key);
+        if (plane != null) {
+            return plane;
+        }
+
+        // Decodes outside the lock; concurrent misses of the same image write the same content.
+        Path path = store(key, src);
+        long size = Files.size(path);
+        plane = CachedPlane.map(key, path);
+
+        synchronized (this) {
+            Entry entry = new Entry(size);
+            entry.plane = plane;
+            entry.touchedMillis = System.currentTimeMillis();
+
+            Entry old = entries.put(key, entry);
+            totalBytes += size - (old == null ? 0 : old.size);
+            evict(key);
+        }
+
+        return plane;
+    }
+
+    private CachedPlane getIfPresent(String key) {
+        long now = System.currentTimeMillis();
+        CachedPlane plane;
+        boolean touch;
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry.plane == null) {
+                try {
+                    entry.plane = CachedPlane.map(key, path(key));
+                } catch (IOException e) {
+                    // The file has been broken or deleted by others: decodes the image again.
+                    remove(key, entry);
+                    return null;
+                }
+            }
+
+            plane = entry.plane;
+            touch = now - entry.touchedMillis >= TOUCH_INTERVAL_MILLIS;
+            if (touch) {
+                entry.touchedMillis = now;
+            }
+        }
+
+        if (touch) {
+            try {
+                Files.setLastModifiedTime(path(key), FileTime.fromMillis(now));
+            } catch (IOException e) {
+                // Only the order of loading by the next instance is affected.
+            }
+        }
+        return plane;
+    }
+
+    private Path store(String key, byte[] src) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            PngReader reader = new PngReader(src, inflater);
+            if (reader.isAnimated()) {
+                throw new IllegalArgumentException("Animated PNG images are not supported");
+            }
+            limits.check(CropCost.of(reader, new CropPng.Rectangle(0, 0, reader.width(), reader.height()), 1, 1, 0));
+
+            long fileSize = CachedPlane.fileSize(reader.width(), reader.height(), reader.head().remaining(), reader.tail().remaining());
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        String.format("Image of %dx%d pixels is too large to be cached", reader.width(), reader.height()));
+            }
+
+            Path temp = Files.createTempFile(directory, key, TEMP_FILE_SUFFIX);
+            try {
+                CachedPlane.write(temp, reader);
+                return Files.move(temp, path(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the total size is within the limit, except for {@code keep}.
+     */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getKey().equals(keep)) {
+                continue;
+            }
+
+            it.remove();
+            totalBytes -= e.getValue().size;
+            deleteQuietly(path(e.getKey()));
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        entries.remove(key);
+        totalBytes -= entry.size;
+        deleteQuietly(path(key));
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // The file will be evicted again by the next instance.
+        }
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key + FILE_SUFFIX);
+    }
+
+    private static FileTime lastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Returns the hex-encoded SHA-256 hash of {@code src}.
+     */
+    static String key(byte[] src) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(src);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >>> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the number of cached planes.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total size of the files of the cached planes.
+     */
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "PlaneCache{" +
+                "directory=" + directory +
+                ", maxBytes=" + maxBytes +
+                ", limits=" + limits +
+                '}';
+    }
+}
@@ -4,7 +4,13 @@ public interface PngConsts {
     long PNG_SIGNATURE = 0x8950_4e47_0d0a_1a0aL;
 
     int CHUNK_TYPE_IHDR = 0x4948_4452;
+    int CHUNK_TYPE_PLTE = 0x504c_5445;
     int CHUNK_TYPE_IDAT = 0x4944_4154;
+    int CHUNK_TYPE_IEND = 0x4945_4e44;
+    int CHUNK_TYPE_TRNS = 0x7452_4e53;
+    int CHUNK_TYPE_ACTL = 0x6163_544c;
+    int CHUNK_TYPE_FCTL = 0x6663_544c;
+    int CHUNK_TYPE_FDAT = 0x6664_4154;
 
     int IHDR_CHUNK_POS = 8;
     int IHDR_CHUNK_LEN = 13;
@@ -12,4 +18,17 @@ public interface PngConsts {
     int IHDR_HEIGHT_POS = 20;
 
     int AFTER_IHDR_CHUNK_POS = IHDR_CHUNK_POS + 8 + IHDR_CHUNK_LEN + 4;
+
+    int ACTL_CHUNK_LEN = 8;
+    int ACTL_NUM_FRAMES_OFFSET = 8;
+
+    int FCTL_CHUNK_LEN = 26;
+    int FCTL_SEQUENCE_NUMBER_OFFSET = 8;
+    int FCTL_WIDTH_OFFSET = 12;
+    int FCTL_HEIGHT_OFFSET = 16;
+    int FCTL_X_OFFSET_OFFSET = 20;
+    int FCTL_Y_OFFSET_OFFSET = 24;
+    int FCTL_DELAY_NUM_OFFSET = 28;
+    int FCTL_DELAY_DEN_OFFSET = 30;
+    int FCTL_DISPOSE_OP_OFFSET = 32;
 }
@@ -118,10 +118,12 @@ enum PngFilter {
 
     private static final PngFilter[] FILTERS;
     private static final int BIT_FLAGS_DOES_NOT_DEPEND_ON_PREV_SCANLINE;
+    private static final int BIT_FLAGS_DOES_NOT_DEPEND_ON_LEFT_COLUMNS;
 
     static {
         FILTERS = PngFilter.values();
         BIT_FLAGS_DOES_NOT_DEPEND_ON_PREV_SCANLINE = (1 << NONE.ordinal()) | (1 << SUB.ordinal());
+        BIT_FLAGS_DOES_NOT_DEPEND_ON_LEFT_COLUMNS = (1 << NONE.ordinal()) | (1 << UP.ordinal());
     }
 
     abstract void reverseFirst0(byte[] imageBytes, int len);
@@ -137,6 +139,17 @@ enum PngFilter {
         return ((BIT_FLAGS_DOES_NOT_DEPEND_ON_PREV_SCANLINE >> filterType) & 1) != 1;
     }
 
+    /**
+     * Returns the leftmost column from which the scanline must be reverse-filtered to restore the columns from {@code column}:
+     * {@code column} itself if given filter type refers to the same column only (None and Up); 0 otherwise.
+     *
+     * @param filterType filter type value (0-4).
+     * @param column     leftmost column to be restored.
+     */
+    static int leftmostColumnToReverse(int filterType, int column) {
+        return ((BIT_FLAGS_DOES_NOT_DEPEND_ON_LEFT_COLUMNS >> filterType) & 1) == 1 ? column : 0;
+    }
+
     /**
      * Reverses filtered bytes of the first scanline.
      *
@@ -158,4 +171,19 @@ enum PngFilter {
     static void reverse(byte[] imageBytes, int pos, int len, int numScanlineBytes) {
         FILTERS[imageBytes[pos]].reverse0(imageBytes, pos, len, numScanlineBytes);
     }
+
+    /**
+     * Reverses filtered bytes of the specified scanline from column {@code from}.
+     * The columns before {@code from} are left filtered, so {@code from} must be the value of {@link #leftmostColumnToReverse(int, int)}.
+     *
+     * @param imageBytes       filtered image bytes.
+     * @param pos              position that points filter value of the scanline.
+     * @param from             column from which to reverse filter.
+     * @param len              number of bytes to reverse filter from the beginning of the scanline.
+     * @param numScanlineBytes number of scanline bytes (includes filter type value).
+     */
+    static void reverse(byte[] imageBytes, int pos, int from, int len, int numScanlineBytes) {
+        // None and Up filters, the only ones that may start from a column other than 0, do not refer to the filter type value.
+        FILTERS[imageBytes[pos]].reverse0(imageBytes, pos + from, len - from, numScanlineBytes);
+    }
 }
@@ -7,35 +7,58 @@ import java.util.zip.Inflater;
 
 import static me.k11i.croppng.PngConsts.*;
 
-class PngReader {
+class PngReader implements PngSource {
+    /**
+     * Maximum number of bytes inflated at once, between which {@link CancellationToken} is checked.
+     */
+    private static final int INFLATE_BLOCK_SIZE = 64 * 1024;
+
     final ByteBuffer src;
-    private final Inflater inflater;
+    private Inflater inflater;
     private final int width;
     private final int height;
     private final int firstIDATChunkPos;
     private final int afterIDATChunkPos;
+    private final int acTLChunkPos;
+    private int nextDataChunkPos;
+    private int afterDataChunkPos;
+    private int numSequenceNumberBytes;
+    private CancellationToken cancellationToken = CancellationToken.NONE;
 
     PngReader(byte[] src) {
         this(src, new Inflater());
     }
 
+    /**
+     * @param inflater {@link Inflater} to inflate the image data, or {@code null} if the image is only parsed
+     *                 until {@link #setInflater(Inflater)} is called.
+     */
     PngReader(byte[] src, Inflater inflater) {
         this.src = ByteBuffer.wrap(src).order(ByteOrder.BIG_ENDIAN);
         this.inflater = inflater;
 
-        verify();
+        verify(this.src);
 
-        this.width = this.src.getInt(16);
-        this.height = this.src.getInt(20);
+        this.width = this.src.getInt(IHDR_WIDTH_POS);
+        this.height = this.src.getInt(IHDR_HEIGHT_POS);
         this.firstIDATChunkPos = findChunk(AFTER_IHDR_CHUNK_POS, CHUNK_TYPE_IDAT, true);
         this.afterIDATChunkPos = findChunk(firstIDATChunkPos, CHUNK_TYPE_IDAT, false);
+        this.acTLChunkPos = findChunkBefore(AFTER_IHDR_CHUNK_POS, firstIDATChunkPos, CHUNK_TYPE_ACTL);
+        this.nextDataChunkPos = firstIDATChunkPos;
+        this.afterDataChunkPos = afterIDATChunkPos;
+
+        if (inflater != null) {
+            inflater.reset();
+        }
     }
 
-    int width() {
+    @Override
+    public int width() {
         return width;
     }
 
-    int height() {
+    @Override
+    public int height() {
         return height;
     }
 
@@ -47,38 +70,112 @@ class PngReader {
         return afterIDATChunkPos;
     }
 
+    /**
+     * Returns {@code true} if the image is an animated PNG (APNG), i.e. it has an acTL chunk.
+     */
+    boolean isAnimated() {
+        return acTLChunkPos >= 0;
+    }
+
+    /**
+     * Returns the number of frames declared in the acTL chunk, or {@code 0} if the image is not animated.
+     */
+    int numFrames() {
+        return isAnimated() ? src.getInt(acTLChunkPos + ACTL_NUM_FRAMES_OFFSET) : 0;
+    }
+
+    /**
+     * Switches the image data to be inflated by {@link #inflate(byte[], int, int)} to the frame data
+     * stored in the consecutive fdAT chunks.
+     *
+     * @param firstFdATChunkPos position of the first fdAT chunk of the frame.
+     * @param afterFdATChunkPos position of the chunk that follows the last fdAT chunk of the frame.
+     */
+    void startFrame(int firstFdATChunkPos, int afterFdATChunkPos) {
+        nextDataChunkPos = firstFdATChunkPos;
+        afterDataChunkPos = afterFdATChunkPos;
+        numSequenceNumberBytes = 4;
+        inflater.reset();
+    }
+
+    @Override
+    public ByteBuffer head() {
+        return src.duplicate().position(0).limit(firstIDATChunkPos);
+    }
+
+    @Override
+    public ByteBuffer tail() {
+        return src.duplicate().position(afterIDATChunkPos);
+    }
+
+    @Override
+    public int sizeHint() {
+        return src.limit();
+    }
+
+    /**
+     * Sets the {@link Inflater} that inflates the image data, which lets an image parsed once be cropped by any {@link CropPng} object.
+     * The image data must not have been inflated yet.
+     */
+    void setInflater(Inflater inflater) {
+        this.inflater = inflater;
+        inflater.reset();
+    }
+
+    /**
+     * Sets the token that is checked by {@link #inflate(byte[], int, int)} at every block of inflated bytes.
+     */
+    void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    CancellationToken cancellationToken() {
+        return cancellationToken;
+    }
+
     byte[] inflateImage(int numBytesToInflate) {
         byte[] result = new byte[numBytesToInflate];
+        inflate(result, 0, numBytesToInflate);
+        return result;
+    }
 
-        int chunkPos = firstIDATChunkPos;
-        inflater.reset();
+    @Override
+    public void inflate(byte[] dst, int off, int len) {
+        int end = off + len;
 
-        int numInflatedBytes = 0;
+        while (off < end) {
+            cancellationToken.check();
 
-        do {
-            if (chunkPos >= afterIDATChunkPos) {
-                throw new IllegalArgumentException("Run out of deflated image bytes");
-            }
+            if (inflater.needsInput()) {
+                if (nextDataChunkPos >= afterDataChunkPos) {
+                    throw new IllegalArgumentException("Run out of deflated image bytes");
+                }
 
-            int len = chunkLength(chunkPos);
-            inflater.setInput(src.array(), chunkPos + 8, len);
+                int chunkDataLen = chunkLength(nextDataChunkPos) - numSequenceNumberBytes;
+                inflater.setInput(src.array(), nextDataChunkPos + 8 + numSequenceNumberBytes, chunkDataLen);
+                nextDataChunkPos = nextChunkPos(nextDataChunkPos);
+            }
 
             try {
-                numInflatedBytes += inflater.inflate(result, numInflatedBytes, result.length - numInflatedBytes);
+                off += inflater.inflate(dst, off, Math.min(end - off, INFLATE_BLOCK_SIZE));
             } catch (DataFormatException e) {
                 throw new IllegalArgumentException(
-                        String.format("Invalid deflated bytes: chunk position = %d, chunk length = %d, # of bytes inflated = %d", chunkPos, len, numInflatedBytes),
+                        String.format("Invalid deflated bytes: next chunk position = %d, # of bytes inflated = %d", nextDataChunkPos, inflater.getBytesWritten()),
                         e);
             }
 
-            chunkPos += 8 + len + 4;
-
-        } while (numInflatedBytes < numBytesToInflate);
-
-        return result;
+            if (off < end && (inflater.finished() || inflater.needsDictionary())) {
+                throw new IllegalArgumentException("Run out of deflated image bytes");
+            }
+        }
     }
 
-    private void verify() {
+    /**
+     * Verifies the PNG signature and the IHDR chunk.
+     *
+     * @param src buffer that starts with the PNG signature and contains the whole IHDR chunk.
+     */
+    static void verify(ByteBuffer src) {
         if (src.getLong(0) != PNG_SIGNATURE) {
             throw new IllegalArgumentException("Bad signature");
         }
@@ -109,7 +206,7 @@ class PngReader {
         }
     }
 
-    private int findChunk(int startPos, int chunkType, boolean findMatches) {
+    int findChunk(int startPos, int chunkType, boolean findMatches) {
         int pos = startPos;
 
         while (pos + 8 < src.limit()) {
@@ -122,7 +219,24 @@ class PngReader {
         throw new IllegalArgumentException("Chunk not found");
     }
 
-    private int chunkLength(int pos) {
+    int findChunkBefore(int startPos, int endPos, int chunkType) {
+        for (int pos = startPos; pos < endPos; pos = nextChunkPos(pos)) {
+            if (chunkType(pos) == chunkType) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    int chunkLength(int pos) {
         return src.getInt(pos);
     }
+
+    int chunkType(int pos) {
+        return src.getInt(pos + 4);
+    }
+
+    int nextChunkPos(int pos) {
+        return pos + 8 + chunkLength(pos) + 4;
+    }
 }
@@ -0,0 +1,39 @@
+package me.k11i.croppng;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of an indexed-color PNG image to be cropped.
+ */
+interface PngSource {
+    int width();
+
+    int height();
+
+    /**
+     * Returns the bytes from the PNG signature up to (but not including) the first IDAT chunk.
+     */
+    ByteBuffer head();
+
+    /**
+     * Inflates the next {@code len} bytes of the image data, continuing from where the previous call finished.
+     *
+     * @param dst buffer to store inflated bytes.
+     * @param off offset in {@code dst}.
+     * @param len number of bytes to inflate.
+     */
+    void inflate(byte[] dst, int off, int len);
+
+    /**
+     * Returns the chunks that follow the IDAT chunks (including the IEND chunk).
+     * <p>
+     * This method must be called after the image data is inflated.
+     * </p>
+     */
+    ByteBuffer tail();
+
+    /**
+     * Returns a hint of the size of the source PNG image, which is used to allocate the output buffer.
+     */
+    int sizeHint();
+}
@@ -0,0 +1,259 @@
+package me.k11i.croppng;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static me.k11i.croppng.PngConsts.*;
+
+/**
+ * Reads PNG image from {@link ReadableByteChannel} incrementally.
+ * <p>
+ * Unlike {@link PngReader}, this class consumes only the bytes required to inflate the requested image bytes.
+ * The chunks that follow the IDAT chunks are read only if {@code keepTrailingChunks} is {@code true};
+ * otherwise only an IEND chunk is emitted as {@link #tail()} and the rest of the input is left unread.
+ * </p>
+ * <p>
+ * Animated PNG (APNG) images are read as static images of their default image:
+ * acTL, fcTL and fdAT chunks are dropped.
+ * </p>
+ * <p>
+ * The chunks that are copied into {@link #head()} and {@link #tail()} are bounded by {@code maxCopiedBytes} in total,
+ * which is checked before each chunk is read, so that a huge ancillary chunk is never buffered.
+ * The channel must be in blocking mode.
+ * </p>
+ * <p>
+ * {@link IOException}s thrown by the channel are rethrown as {@link UncheckedIOException}.
+ * </p>
+ */
+class PngStreamReader implements PngSource {
+    private static final byte[] IEND_CHUNK = {0, 0, 0, 0, 0x49, 0x45, 0x4e, 0x44, (byte) 0xae, 0x42, 0x60, (byte) 0x82};
+    private static final int INPUT_BUFFER_SIZE = 8192;
+
+    private final ReadableByteChannel ch;
+    private final Inflater inflater;
+    private final boolean keepTrailingChunks;
+    private final long maxCopiedBytes;
+    private final ByteBuffer head;
+    private final ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
+    private final byte[] inputBuffer = new byte[INPUT_BUFFER_SIZE];
+    private final int width;
+    private final int height;
+
+    private long numBytesRead;
+    private long numCopiedBytes;
+    private int remainingIDATBytes;
+
+    /**
+     * @param maxCopiedBytes maximum total number of bytes of the chunks copied into {@link #head()} and {@link #tail()}.
+     * @throws IllegalArgumentException if {@code ch} is a {@link SelectableChannel} in non-blocking mode.
+     */
+    PngStreamReader(ReadableByteChannel ch, Inflater inflater, boolean keepTrailingChunks, long maxCopiedBytes) {
+        if (ch instanceof SelectableChannel && !((SelectableChannel) ch).isBlocking()) {
+            throw new IllegalArgumentException("Channel must be in blocking mode");
+        }
+
+        this.ch = ch;
+        this.inflater = inflater;
+        this.keepTrailingChunks = keepTrailingChunks;
+        this.maxCopiedBytes = maxCopiedBytes;
+
+        ByteBuffer ihdr = ByteBuffer.allocate(AFTER_IHDR_CHUNK_POS).order(ByteOrder.BIG_ENDIAN);
+        readFully(ihdr);
+        PngReader.verify(ihdr);
+
+        this.width = ihdr.getInt(IHDR_WIDTH_POS);
+        this.height = ihdr.getInt(IHDR_HEIGHT_POS);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        out.write(ihdr.array(), 0, ihdr.limit());
+        numCopiedBytes = ihdr.limit();
+        this.remainingIDATBytes = readChunksUntilIDAT(out);
+        this.head = ByteBuffer.wrap(out.toByteArray());
+
+        inflater.reset();
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public ByteBuffer head() {
+        return head.duplicate();
+    }
+
+    @Override
+    public void inflate(byte[] dst, int off, int len) {
+        int end = off + len;
+
+        while (off < end) {
+            if (inflater.needsInput()) {
+                if (remainingIDATBytes == 0) {
+                    skip(4);
+                    if (readChunkHeader() != CHUNK_TYPE_IDAT) {
+                        throw new IllegalArgumentException("Run out of deflated image bytes");
+                    }
+                    remainingIDATBytes = chunkHeader.getInt(0);
+                    continue;
+                }
+
+                int n = readSome(inputBuffer, Math.min(remainingIDATBytes, inputBuffer.length));
+                remainingIDATBytes -= n;
+                inflater.setInput(inputBuffer, 0, n);
+            }
+
+            try {
+                off += inflater.inflate(dst, off, end - off);
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException(
+                        String.format("Invalid deflated bytes: # of bytes read = %d, # of bytes inflated = %d", numBytesRead, inflater.getBytesWritten()),
+                        e);
+            }
+
+            if (off < end && (inflater.finished() || inflater.needsDictionary())) {
+                throw new IllegalArgumentException("Run out of deflated image bytes");
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer tail() {
+        if (!keepTrailingChunks) {
+            return ByteBuffer.wrap(IEND_CHUNK);
+        }
+
+        skip(remainingIDATBytes + 4L);
+        remainingIDATBytes = 0;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        int chunkType;
+        do {
+            chunkType = readChunkHeader();
+            int len = chunkHeader.getInt(0);
+
+            if (chunkType == CHUNK_TYPE_IDAT || isAnimationChunk(chunkType)) {
+                skip(len + 4L);
+                continue;
+            }
+
+            copyChunk(out, len);
+
+        } while (chunkType != CHUNK_TYPE_IEND);
+
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    @Override
+    public int sizeHint() {
+        return (int) Math.min(numBytesRead, Integer.MAX_VALUE);
+    }
+
+    private int readChunksUntilIDAT(ByteArrayOutputStream out) {
+        while (true) {
+            int chunkType = readChunkHeader();
+            int len = chunkHeader.getInt(0);
+
+            if (chunkType == CHUNK_TYPE_IDAT) {
+                return len;
+            }
+            if (chunkType == CHUNK_TYPE_IEND) {
+                throw new IllegalArgumentException("Chunk not found");
+            }
+            if (isAnimationChunk(chunkType)) {
+                skip(len + 4L);
+                continue;
+            }
+
+            copyChunk(out, len);
+        }
+    }
+
+    private static boolean isAnimationChunk(int chunkType) {
+        return chunkType == CHUNK_TYPE_ACTL || chunkType == CHUNK_TYPE_FCTL || chunkType == CHUNK_TYPE_FDAT;
+    }
+
+    private int readChunkHeader() {
+        chunkHeader.clear();
+        readFully(chunkHeader);
+
+        if (chunkHeader.getInt(0) < 0) {
+            throw new IllegalArgumentException("Bad chunk length: " + Integer.toUnsignedString(chunkHeader.getInt(0)));
+        }
+        return chunkHeader.getInt(4);
+    }
+
+    /**
+     * Copies the chunk whose header has just been read, checking the total size of the copied chunks before reading it.
+     */
+    private void copyChunk(ByteArrayOutputStream out, int len) {
+        numCopiedBytes += 12L + len;
+        if (numCopiedBytes > maxCopiedBytes) {
+            throw new CropLimitExceededException(
+                    String.format("Output size must be less than or equal to %d but the chunks to be copied have %d bytes or more",
+                            maxCopiedBytes, numCopiedBytes),
+                    null);
+        }
+
+        out.write(chunkHeader.array(), 0, 8);
+        copy(out, len + 4L);
+    }
+
+    private void copy(ByteArrayOutputStream out, long len) {
+        while (len > 0) {
+            int n = readSome(inputBuffer, (int) Math.min(len, inputBuffer.length));
+            out.write(inputBuffer, 0, n);
+            len -= n;
+        }
+    }
+
+    private void skip(long len) {
+        while (len > 0) {
+            len -= readSome(inputBuffer, (int) Math.min(len, inputBuffer.length));
+        }
+    }
+
+    private void readFully(ByteBuffer buf) {
+        while (buf.hasRemaining()) {
+            read(buf);
+        }
+    }
+
+    private int readSome(byte[] buf, int len) {
+        return read(ByteBuffer.wrap(buf, 0, len));
+    }
+
+    /**
+     * Reads at least one byte into {@code buf}, which must have room.
+     */
+    private int read(ByteBuffer buf) {
+        try {
+            int n = ch.read(buf);
+            if (n < 0) {
+                throw new UncheckedIOException(new EOFException("Unexpected end of PNG stream"));
+            }
+            if (n == 0) {
+                // A blocking channel reads at least one byte; spinning on a non-blocking one would never end.
+                throw new IllegalArgumentException("Channel must be in blocking mode, but it read no bytes");
+            }
+            numBytesRead += n;
+            return n;
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -9,6 +9,16 @@ import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
 class PngWriteBuffer {
+    /**
+     * Statistics of deflating image data, which are measured only when the buffer is given an instance
+     * by {@link #measureDeflation(DeflateStats)}.
+     */
+    static final class DeflateStats {
+        long nanos;
+        long numInputBytes;
+        long numOutputBytes;
+    }
+
     private static class ArrayOutputStream extends OutputStream {
         private byte[] buffer;
         private int pos;
@@ -30,6 +40,13 @@ class PngWriteBuffer {
             pos += len;
         }
 
+        void write(ByteBuffer b) {
+            int len = b.remaining();
+            expandBufferIfNeeded(len);
+            b.duplicate().get(buffer, pos, len);
+            pos += len;
+        }
+
         void setBigEndianIntAt(int val, int setPos) {
             buffer[setPos] = (byte) (val >>> 24);
             buffer[setPos + 1] = (byte) (val >>> 16);
@@ -60,19 +77,46 @@ class PngWriteBuffer {
         }
     }
 
+    /**
+     * Maximum number of bytes deflated at once while {@link CancellationToken} is checked.
+     */
+    private static final int DEFLATE_BLOCK_SIZE = 64 * 1024;
+
     private static final byte[] EMPTY_LENGTH_IDAT = {0, 0, 0, 0, 0x49, 0x44, 0x41, 0x54};
+    private static final byte[] EMPTY_LENGTH_FDAT = {0, 0, 0, 0, 0x66, 0x64, 0x41, 0x54};
     private final ArrayOutputStream out;
     private final Deflater deflater;
     private final CRC32 crc;
+    private final CancellationToken cancellationToken;
+    private DeflaterOutputStream deflateOut;
+    private int chunkLengthPos;
+    private DeflateStats deflateStats;
 
     PngWriteBuffer(int estimatedSize, Deflater deflater) {
+        this(estimatedSize, deflater, CancellationToken.NONE);
+    }
+
+    /**
+     * @param cancellationToken token that is checked by {@link #writeImageBytes(byte[], int, int)} at every block of deflated bytes.
+     */
+    PngWriteBuffer(int estimatedSize, Deflater deflater, CancellationToken cancellationToken) {
         this.out = new ArrayOutputStream(estimatedSize);
         this.deflater = deflater;
         this.crc = new CRC32();
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * Makes the following deflating of image data accumulate its time and sizes into {@code stats};
+     * {@code null} disables the measurement, which is the default.
+     */
+    PngWriteBuffer measureDeflation(DeflateStats stats) {
+        this.deflateStats = stats;
+        return this;
     }
 
-    PngWriteBuffer writeBytes(ByteBuffer src, int pos, int len) {
-        out.write(src.array(), pos, len);
+    PngWriteBuffer writeBytes(ByteBuffer src) {
+        out.write(src);
         return this;
     }
 
@@ -81,6 +125,19 @@ class PngWriteBuffer {
         return this;
     }
 
+    PngWriteBuffer writeShortAt(int val, int pos) {
+        out.buffer[pos] = (byte) (val >>> 8);
+        out.buffer[pos + 1] = (byte) val;
+        return this;
+    }
+
+    /**
+     * Returns the number of bytes written so far, which is the position of the next byte to be written.
+     */
+    int position() {
+        return out.pos;
+    }
+
     PngWriteBuffer updateCRC(int pos, int len, boolean write) {
         crc.reset();
         crc.update(out.buffer, pos, len);
@@ -92,23 +149,97 @@ class PngWriteBuffer {
         return this;
     }
 
+    /**
+     * Writes a chunk whose data is {@code len} bytes of {@code data} from {@code off}.
+     */
+    PngWriteBuffer writeChunk(int chunkType, byte[] data, int off, int len) {
+        int pos = out.pos;
+        out.writeBigEndianInt(len);
+        out.writeBigEndianInt(chunkType);
+        out.write(data, off, len);
+        return updateCRC(pos + 4, len + 4, true);
+    }
+
     PngWriteBuffer writeImage(byte[] imageBytes) {
-        int idatLengthPos = out.pos;
+        return writeImage(imageBytes, imageBytes.length);
+    }
+
+    PngWriteBuffer writeImage(byte[] imageBytes, int len) {
+        return beginImage()
+                .writeImageBytes(imageBytes, 0, len)
+                .endImage();
+    }
+
+    /**
+     * Writes an fdAT chunk of APNG that contains the deflated frame image.
+     */
+    PngWriteBuffer writeFrameImage(int sequenceNumber, byte[] imageBytes, int len) {
+        int fdatLengthPos = out.pos;
+        out.write(EMPTY_LENGTH_FDAT, 0, EMPTY_LENGTH_FDAT.length);
+        out.writeBigEndianInt(sequenceNumber);
+
+        return beginDeflate(fdatLengthPos)
+                .writeImageBytes(imageBytes, 0, len)
+                .endImage();
+    }
 
+    /**
+     * Starts an IDAT chunk whose data is written incrementally by {@link #writeImageBytes(byte[], int, int)}.
+     * The chunk must be completed by {@link #endImage()}.
+     */
+    PngWriteBuffer beginImage() {
+        int idatLengthPos = out.pos;
         out.write(EMPTY_LENGTH_IDAT, 0, EMPTY_LENGTH_IDAT.length);
-        deflater.reset();
 
-        try (DeflaterOutputStream deflateOut = new DeflaterOutputStream(out, deflater, 8192)) {
-            deflateOut.write(imageBytes);
+        return beginDeflate(idatLengthPos);
+    }
+
+    PngWriteBuffer writeImageBytes(byte[] imageBytes, int off, int len) {
+        long start = deflateStats != null ? System.nanoTime() : 0;
+        try {
+            // Without a token, the bytes are written at once as the callers split them:
+            // at level 0, the boundaries of the stored blocks depend on how the input is split.
+            if (cancellationToken == CancellationToken.NONE) {
+                deflateOut.write(imageBytes, off, len);
+            } else {
+                for (int end = off + len; off < end; off += DEFLATE_BLOCK_SIZE) {
+                    cancellationToken.check();
+                    deflateOut.write(imageBytes, off, Math.min(end - off, DEFLATE_BLOCK_SIZE));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (deflateStats != null) {
+            deflateStats.nanos += System.nanoTime() - start;
+        }
+        return this;
+    }
+
+    PngWriteBuffer endImage() {
+        long start = deflateStats != null ? System.nanoTime() : 0;
+        try {
+            deflateOut.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        if (deflateStats != null) {
+            deflateStats.nanos += System.nanoTime() - start;
+            deflateStats.numInputBytes += deflater.getBytesRead();
+            deflateStats.numOutputBytes += deflater.getBytesWritten();
+        }
+        deflateOut = null;
 
-        int numDeflatedBytes = out.pos - (idatLengthPos + 8);
-        out.setBigEndianIntAt(numDeflatedBytes, idatLengthPos);
+        int chunkDataLength = out.pos - (chunkLengthPos + 8);
+        out.setBigEndianIntAt(chunkDataLength, chunkLengthPos);
 
-        updateCRC(idatLengthPos + 4, numDeflatedBytes + 4, true);
+        return updateCRC(chunkLengthPos + 4, chunkDataLength + 4, true);
+    }
 
+    private PngWriteBuffer beginDeflate(int chunkLengthPos) {
+        this.chunkLengthPos = chunkLengthPos;
+        deflater.reset();
+        deflateOut = new DeflaterOutputStream(out, deflater, 8192);
         return this;
     }
 
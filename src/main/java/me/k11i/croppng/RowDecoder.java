@@ -0,0 +1,92 @@
+package me.k11i.croppng;
+
+/**
+ * Decodes the image rows one by one, keeping only the previous row and the current row in memory.
+ *
+ * <p>
+ * A row is reverse-filtered lazily: only when it is requested, or when the next row depends on it.
+ * Rows that are followed by a row filtered with NONE or SUB are therefore never reverse-filtered unless requested.
+ * Only the first {@code len} pixels of each row are reverse-filtered.
+ * </p>
+ */
+class RowDecoder {
+    private final PngSource source;
+    private final int numScanlineBytes;
+    private final int len;
+
+    /**
+     * The previous row in {@code [0, numScanlineBytes)} and the current row in {@code [numScanlineBytes, numScanlineBytes * 2)}.
+     * The previous row of the first row is zero-filled, which makes the first row reverse-filtered correctly.
+     */
+    private final byte[] rows;
+    private final byte[] filterType = new byte[1];
+
+    private int currentRow = -1;
+    private boolean currentRowFiltered;
+
+    /**
+     * @param source source image whose image data has not been inflated yet.
+     * @param len    number of pixels from the left of each row to be reverse-filtered.
+     */
+    RowDecoder(PngSource source, int len) {
+        this(source, source.width(), len);
+    }
+
+    /**
+     * @param source source image whose image data (or frame data) has not been inflated yet.
+     * @param width  width of the image (or the frame).
+     * @param len    number of pixels from the left of each row to be reverse-filtered.
+     */
+    RowDecoder(PngSource source, int width, int len) {
+        this.source = source;
+        this.numScanlineBytes = width + 1;
+        this.len = len;
+        this.rows = new byte[numScanlineBytes * 2];
+    }
+
+    /**
+     * Returns the position in the buffer returned by {@link #readRow(int)} that points the first pixel of the row.
+     */
+    int rowOffset() {
+        return numScanlineBytes + 1;
+    }
+
+    /**
+     * Inflates rows up to {@code row}, and returns the buffer that contains the reverse-filtered pixels of the row
+     * from {@link #rowOffset()}.
+     * Rows must be read in non-decreasing order.
+     */
+    byte[] readRow(int row) {
+        if (row < currentRow) {
+            throw new IllegalArgumentException(String.format("Row %d has already been passed (current row = %d)", row, currentRow));
+        }
+
+        while (currentRow < row) {
+            advance();
+        }
+
+        reverseFilterCurrentRow();
+        return rows;
+    }
+
+    private void advance() {
+        source.inflate(filterType, 0, 1);
+        if (PngFilter.dependsOnPreviousScanline(filterType[0])) {
+            reverseFilterCurrentRow();
+        }
+
+        System.arraycopy(rows, numScanlineBytes, rows, 0, len + 1);
+        rows[numScanlineBytes] = filterType[0];
+        source.inflate(rows, numScanlineBytes + 1, numScanlineBytes - 1);
+
+        currentRow++;
+        currentRowFiltered = true;
+    }
+
+    private void reverseFilterCurrentRow() {
+        if (currentRowFiltered) {
+            PngFilter.reverse(rows, numScanlineBytes, len, numScanlineBytes);
+            currentRowFiltered = false;
+        }
+    }
+}
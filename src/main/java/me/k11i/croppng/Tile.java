@@ -0,0 +1,63 @@
+package me.k11i.croppng;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+
+/**
+ * A rectangular region of a source PNG image to be placed on the canvas by {@link CropPng#compose(int, int, int, java.util.List)}.
+ */
+public final class Tile {
+    final byte[] src;
+    final int x;
+    final int y;
+    final int width;
+    final int height;
+    final int scaleFactor;
+    final int dstX;
+    final int dstY;
+
+    /**
+     * Constructs a tile.
+     *
+     * @param src         byte data of the source PNG image.
+     * @param x           x coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param y           y coordinate of the upper-left corner of the rectangle to be extracted.
+     * @param width       width of the rectangle to be extracted.
+     * @param height      height of the rectangle to be extracted.
+     * @param scaleFactor magnification factor (must be > 0).
+     * @param dstX        x coordinate on the canvas where the upper-left corner of the (enlarged) rectangle is placed.
+     * @param dstY        y coordinate on the canvas where the upper-left corner of the (enlarged) rectangle is placed.
+     */
+    public Tile(@NotNull byte[] src, int x, int y, int width, int height, int scaleFactor, int dstX, int dstY) {
+        this.src = Objects.requireNonNull(src, "src must be non-null");
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.scaleFactor = scaleFactor;
+        this.dstX = dstX;
+        this.dstY = dstY;
+    }
+
+    int dstRight() {
+        return dstX + width * scaleFactor;
+    }
+
+    int dstBottom() {
+        return dstY + height * scaleFactor;
+    }
+
+    @Override
+    public String toString() {
+        return "Tile{" +
+                "x=" + x +
+                ", y=" + y +
+                ", width=" + width +
+                ", height=" + height +
+                ", scaleFactor=" + scaleFactor +
+                ", dstX=" + dstX +
+                ", dstY=" + dstY +
+                '}';
+    }
+}
@@ -0,0 +1,174 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.CropPng.Rectangle;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static me.k11i.croppng.PngConsts.*;
+
+/**
+ * Bounded cache of cropped PNG images keyed by their content, which lets identical tiles (e.g. empty ocean or transparent padding
+ * of maps and atlases) be encoded only once (see {@link CropPng#crop(byte[], int, int, int, int, int, TileCache)}).
+ *
+ * <p>
+ * The key is the SHA-256 hash of everything the output depends on: the reverse-filtered pixels (palette indices) of the rectangle,
+ * the size of the output image, the chunks of the source image except for the width and the height in the IHDR chunk,
+ * and the compression level. The source image and the position of the rectangle are not part of the key,
+ * so the same tile cropped from anywhere hits the cache, which costs hashing the pixels and copying the cached image.
+ * </p>
+ * <p>
+ * The total size of the cached images is bounded by {@code maxBytes}, evicting the least recently used ones.
+ * Instances of this class are thread-safe and can be shared by {@link CropPng} objects on different threads.
+ * </p>
+ */
+public final class TileCache {
+    private final long maxBytes;
+
+    // The followings are guarded by this.
+    private final LinkedHashMap<ByteBuffer, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long numHits;
+    private long numMisses;
+
+    /**
+     * Constructs an object.
+     *
+     * @param maxBytes maximum total size of the cached PNG images (must be > 0).
+     */
+    public TileCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be greater than 0 but " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the key of the output image, which is cropped from the reverse-filtered bytes of the source image.
+     *
+     * @param head chunks of the source image before the image data (see {@link PngSource#head()}).
+     * @param tail chunks of the source image after the image data (see {@link PngSource#tail()}).
+     */
+    static ByteBuffer key(ByteBuffer head, ByteBuffer tail, byte[] srcImageBytes, int srcWidth, Rectangle rect,
+                          int scaleFactor, int level) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        ByteBuffer params = ByteBuffer.allocate(4 * 4)
+                .putInt(rect.width)
+                .putInt(rect.height)
+                .putInt(scaleFactor)
+                .putInt(level)
+                .flip();
+        digest.update(params);
+
+        // Skips the width and the height of the source image and the CRC of the IHDR chunk, which are rewritten for the output.
+        int ihdrCrcPos = IHDR_CHUNK_POS + 8 + IHDR_CHUNK_LEN;
+        digest.update(range(head, 0, IHDR_WIDTH_POS));
+        digest.update(range(head, IHDR_HEIGHT_POS + 4, ihdrCrcPos));
+        digest.update(range(head, ihdrCrcPos + 4, head.limit()));
+        digest.update(tail.duplicate());
+
+        int numSrcScanlineBytes = srcWidth + 1;
+        for (int y = rect.top(); y < rect.bottom(); y++) {
+            digest.update(srcImageBytes, numSrcScanlineBytes * y + 1 + rect.left(), rect.width);
+        }
+
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    private static ByteBuffer range(ByteBuffer buf, int from, int to) {
+        ByteBuffer dup = buf.duplicate();
+        dup.position(from).limit(to);
+        return dup;
+    }
+
+    /**
+     * Returns a copy of the cached image of {@code key}, or {@code null} if it is not cached.
+     */
+    ByteBuffer get(ByteBuffer key) {
+        byte[] image;
+        synchronized (this) {
+            image = entries.get(key);
+            if (image == null) {
+                numMisses++;
+                return null;
+            }
+            numHits++;
+        }
+
+        return ByteBuffer.wrap(image.clone());
+    }
+
+    /**
+     * Caches a copy of {@code image}, evicting the least recently used images if the total size exceeds the limit.
+     * An image larger than the limit is not cached.
+     */
+    void put(ByteBuffer key, ByteBuffer image) {
+        if (image.remaining() > maxBytes) {
+            return;
+        }
+
+        byte[] copy = new byte[image.remaining()];
+        image.duplicate().get(copy);
+
+        synchronized (this) {
+            byte[] old = entries.put(key, copy);
+            totalBytes += copy.length - (old == null ? 0 : old.length);
+
+            Iterator<Map.Entry<ByteBuffer, byte[]>> it = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                Map.Entry<ByteBuffer, byte[]> e = it.next();
+                if (e.getKey().equals(key)) {
+                    continue;
+                }
+                it.remove();
+                totalBytes -= e.getValue().length;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached images.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total size of the cached images.
+     */
+    public synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns the number of croppings that reused a cached image.
+     */
+    public synchronized long numHits() {
+        return numHits;
+    }
+
+    /**
+     * Returns the number of croppings that encoded the image because it was not cached.
+     */
+    public synchronized long numMisses() {
+        return numMisses;
+    }
+
+    @Override
+    public String toString() {
+        return "TileCache{" +
+                "maxBytes=" + maxBytes +
+                '}';
+    }
+}
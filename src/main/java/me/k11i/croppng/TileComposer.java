@@ -0,0 +1,453 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.CropPng.Rectangle;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static me.k11i.croppng.PngConsts.*;
+
+/**
+ * Composes many tiles cropped from indexed-color PNG images into one PNG image.
+ *
+ * <p>
+ * The output image is generated row by row: each source image is inflated and reverse-filtered incrementally
+ * by {@link RowDecoder} only while its tile intersects the output row, and the filtered output rows are
+ * deflated in bands into a single IDAT chunk.
+ * Thus the memory usage is bounded by one band of output rows and two rows of each tile that is being composed.
+ * </p>
+ * <p>
+ * The palettes of the source images are merged into the output palette.
+ * If all source images share the same palette, the output palette is the same as it (plus the background color if needed),
+ * and the palette indices are copied as they are.
+ * If the merged palette has too many colors, only the colors used in the tiles are merged.
+ * The background color is added only if some pixels are not covered by any tile.
+ * Tiles are drawn in the order of the list, so that a later tile overwrites earlier ones.
+ * </p>
+ */
+class TileComposer {
+    private static final int MAX_PALETTE_SIZE = 256;
+
+    /**
+     * Upper bound of the number of bytes of the signature, the IHDR chunk, the PLTE chunk and the tRNS chunk of the output image.
+     */
+    private static final int MAX_HEAD_BYTES = 8 + (12 + IHDR_CHUNK_LEN) + (12 + MAX_PALETTE_SIZE * 3) + (12 + MAX_PALETTE_SIZE);
+
+    /**
+     * Number of bytes of the IEND chunk.
+     */
+    private static final int TAIL_BYTES = 12;
+
+    private static class Layer {
+        final Tile tile;
+        final int order;
+        final Palette palette;
+
+        byte[] colorMap;
+        Inflater inflater;
+        RowDecoder decoder;
+
+        Layer(Tile tile, int order, Palette palette) {
+            this.tile = tile;
+            this.order = order;
+            this.palette = palette;
+        }
+    }
+
+    private final Deflater deflater;
+    private final Inflater inflater;
+    private final CropLimits limits;
+    private final ArrayDeque<Inflater> inflaterPool = new ArrayDeque<>();
+
+    private final int[] colors = new int[MAX_PALETTE_SIZE];
+    private final Map<Integer, Integer> colorIndices = new HashMap<>();
+    private int numColors;
+
+    /**
+     * @param deflater {@link Deflater} to encode the output image.
+     * @param inflater {@link Inflater} that is used only to parse the chunk headers of the source images.
+     * @param limits   {@link CropLimits} that are checked for the canvas and for each tile.
+     */
+    TileComposer(Deflater deflater, Inflater inflater, CropLimits limits) {
+        this.deflater = deflater;
+        this.inflater = inflater;
+        this.limits = limits;
+    }
+
+    ByteBuffer compose(int width, int height, int backgroundArgb, List<Tile> tiles) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException(String.format("width and height must be greater than or equal to 1 but %d x %d", width, height));
+        }
+        if (width >= CropLimits.MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("width exceeds the maximum array size: " + width);
+        }
+        // The canvas is checked before any tile is decoded, since the work of filling it does not depend on the tiles.
+        limits.check(CropCost.ofCanvas(width, height, MAX_HEAD_BYTES, TAIL_BYTES));
+
+        List<Layer> layers = prepareLayers(width, height, tiles);
+
+        try {
+            int backgroundIndex = buildPalette(layers, coversCanvas(width, height, tiles) ? null : backgroundArgb);
+
+            PngWriteBuffer buf = new PngWriteBuffer(estimateSize(tiles), deflater);
+            writeHeader(buf, width, height);
+
+            buf.beginImage();
+            writeRows(buf, width, height, backgroundIndex, layers);
+            return buf.endImage()
+                    .writeChunk(CHUNK_TYPE_IEND, new byte[0], 0, 0)
+                    .toByteBuffer();
+
+        } finally {
+            for (Layer layer : layers) {
+                releaseInflater(layer);
+            }
+            for (Inflater inflater : inflaterPool) {
+                inflater.end();
+            }
+            inflaterPool.clear();
+        }
+    }
+
+    private List<Layer> prepareLayers(int width, int height, List<Tile> tiles) {
+        Map<byte[], Palette> palettes = new IdentityHashMap<>();
+        List<Layer> result = new ArrayList<>(tiles.size());
+
+        for (Tile tile : tiles) {
+            CropPng.checkScaleFactor(tile.scaleFactor);
+
+            PngReader reader = new PngReader(tile.src, inflater);
+            Rectangle rect = new Rectangle(tile.x, tile.y, tile.width, tile.height);
+            CropPng.checkRectangle(reader, rect);
+            limits.check(CropPng.estimate(reader, rect, tile.scaleFactor));
+
+            long dstRight = (long) tile.dstX + (long) tile.width * tile.scaleFactor;
+            long dstBottom = (long) tile.dstY + (long) tile.height * tile.scaleFactor;
+            if (tile.dstX < 0 || tile.dstY < 0 || dstRight > width || dstBottom > height) {
+                throw new IllegalArgumentException(String.format("%s must be placed within the canvas of %d x %d", tile, width, height));
+            }
+
+            Palette palette = palettes.computeIfAbsent(tile.src, ignore -> Palette.parse(reader.head()));
+            result.add(new Layer(tile, result.size(), palette));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns {@code true} if every pixel of the canvas is covered by any tile, in which case the background color is not needed.
+     */
+    private static boolean coversCanvas(int width, int height, List<Tile> tiles) {
+        int[] boundaries = tiles.stream()
+                .flatMapToInt(tile -> IntStream.of(tile.dstY, tile.dstBottom()))
+                .filter(y -> y < height)
+                .distinct()
+                .sorted()
+                .toArray();
+        if (boundaries.length == 0 || boundaries[0] > 0) {
+            return false;
+        }
+
+        // Every horizontal strip between the boundaries is covered by the same set of tiles.
+        for (int y : boundaries) {
+            int[][] spans = tiles.stream()
+                    .filter(tile -> tile.dstY <= y && y < tile.dstBottom() && tile.width > 0)
+                    .map(tile -> new int[]{tile.dstX, tile.dstRight()})
+                    .sorted(Comparator.comparingInt(span -> span[0]))
+                    .toArray(int[][]::new);
+
+            int covered = 0;
+            for (int[] span : spans) {
+                if (span[0] > covered) {
+                    return false;
+                }
+                covered = Math.max(covered, span[1]);
+            }
+            if (covered < width) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Builds the output palette and the color maps of the layers, and returns the index of the background color.
+     *
+     * <p>
+     * The whole palettes of the source images are merged first.
+     * If they have too many colors, only the colors used in the tiles are merged, which requires decoding the tiles in advance.
+     * </p>
+     *
+     * @param backgroundArgb background color, or {@code null} if it is not needed.
+     */
+    private int buildPalette(List<Layer> layers, Integer backgroundArgb) {
+        if (mergePalettes(layers, null, backgroundArgb)) {
+            return backgroundArgb != null ? colorIndices.get(backgroundArgb) : 0;
+        }
+
+        Map<Palette, boolean[]> usedIndices = collectUsedIndices(layers);
+        if (mergePalettes(layers, usedIndices, backgroundArgb)) {
+            return backgroundArgb != null ? colorIndices.get(backgroundArgb) : 0;
+        }
+
+        throw new IllegalArgumentException("Too many colors to merge palettes: more than " + MAX_PALETTE_SIZE);
+    }
+
+    /**
+     * Tries to merge the palettes, and returns {@code false} if the merged palette has too many colors.
+     *
+     * @param usedIndices indices used in the tiles of each palette, or {@code null} to merge all the colors.
+     */
+    private boolean mergePalettes(List<Layer> layers, Map<Palette, boolean[]> usedIndices, Integer backgroundArgb) {
+        numColors = 0;
+        colorIndices.clear();
+
+        Map<Palette, byte[]> colorMaps = new IdentityHashMap<>();
+        for (Layer layer : layers) {
+            byte[] colorMap = colorMaps.get(layer.palette);
+            if (colorMap == null) {
+                colorMap = mergePalette(layer.palette, usedIndices == null ? null : usedIndices.get(layer.palette));
+                if (colorMap == null) {
+                    return false;
+                }
+                colorMaps.put(layer.palette, colorMap);
+            }
+            layer.colorMap = colorMap;
+        }
+
+        if (backgroundArgb != null) {
+            if ((backgroundArgb >>> 24) == 0) {
+                // Any fully-transparent color can be the transparent background.
+                for (int i = 0; i < numColors; i++) {
+                    if ((colors[i] >>> 24) == 0) {
+                        colorIndices.put(backgroundArgb, i);
+                        return true;
+                    }
+                }
+            }
+            return colorIndices.containsKey(backgroundArgb) || addColor(backgroundArgb) >= 0;
+        }
+
+        return true;
+    }
+
+    /**
+     * Merges the palette into the output palette, and returns the map from the source indices to the output indices,
+     * or {@code null} if the merged palette has too many colors.
+     */
+    private byte[] mergePalette(Palette palette, boolean[] used) {
+        byte[] colorMap = new byte[MAX_PALETTE_SIZE];
+        boolean first = numColors == 0 && used == null;
+
+        for (int i = 0; i < palette.size(); i++) {
+            if (used != null && !used[i]) {
+                continue;
+            }
+
+            int argb = palette.argb(i);
+            // The first palette is copied as it is, so that the indices of the sources that share it are not remapped.
+            Integer index = first ? null : colorIndices.get(argb);
+            int newIndex = index != null ? index : addColor(argb);
+            if (newIndex < 0) {
+                return null;
+            }
+            colorMap[i] = (byte) newIndex;
+        }
+
+        return colorMap;
+    }
+
+    /**
+     * Returns the index of the added color, or {@code -1} if the palette is full.
+     */
+    private int addColor(int argb) {
+        if (numColors >= MAX_PALETTE_SIZE) {
+            return -1;
+        }
+        colorIndices.putIfAbsent(argb, numColors);
+        colors[numColors] = argb;
+        return numColors++;
+    }
+
+    private Map<Palette, boolean[]> collectUsedIndices(List<Layer> layers) {
+        Map<Palette, boolean[]> result = new IdentityHashMap<>();
+
+        for (Layer layer : layers) {
+            boolean[] used = result.computeIfAbsent(layer.palette, ignore -> new boolean[MAX_PALETTE_SIZE]);
+            Tile tile = layer.tile;
+            if (tile.width == 0 || tile.height == 0) {
+                continue;
+            }
+
+            Inflater inflater = acquireInflater();
+            try {
+                RowDecoder decoder = new RowDecoder(new PngReader(tile.src, inflater), tile.x + tile.width);
+                for (int y = tile.y; y < tile.y + tile.height; y++) {
+                    byte[] row = decoder.readRow(y);
+                    for (int i = decoder.rowOffset() + tile.x, end = i + tile.width; i < end; i++) {
+                        used[row[i] & 0xff] = true;
+                    }
+                }
+            } finally {
+                inflaterPool.add(inflater);
+            }
+        }
+
+        return result;
+    }
+
+    private static int estimateSize(List<Tile> tiles) {
+        long result = 1024;
+        for (Tile tile : tiles) {
+            result += (long) tile.width * tile.height * tile.scaleFactor;
+        }
+        return (int) Math.min(result, 1024 * 1024);
+    }
+
+    private void writeHeader(PngWriteBuffer buf, int width, int height) {
+        ByteBuffer ihdr = ByteBuffer.allocate(IHDR_CHUNK_LEN)
+                .putInt(width)
+                .putInt(height)
+                .put((byte) 8)
+                .put((byte) 3);
+
+        byte[] plte = new byte[numColors * 3];
+        byte[] trns = new byte[numColors];
+        int trnsLen = 0;
+
+        for (int i = 0; i < numColors; i++) {
+            plte[i * 3] = (byte) (colors[i] >>> 16);
+            plte[i * 3 + 1] = (byte) (colors[i] >>> 8);
+            plte[i * 3 + 2] = (byte) colors[i];
+
+            trns[i] = (byte) (colors[i] >>> 24);
+            if (trns[i] != (byte) 0xff) {
+                trnsLen = i + 1;
+            }
+        }
+
+        buf.writeBytes(ByteBuffer.allocate(8).putLong(0, PNG_SIGNATURE))
+                .writeChunk(CHUNK_TYPE_IHDR, ihdr.array(), 0, IHDR_CHUNK_LEN)
+                .writeChunk(CHUNK_TYPE_PLTE, plte, 0, plte.length);
+        if (trnsLen > 0) {
+            buf.writeChunk(CHUNK_TYPE_TRNS, trns, 0, trnsLen);
+        }
+    }
+
+    private void writeRows(PngWriteBuffer buf, int width, int height, int backgroundIndex, List<Layer> layers) {
+        int numScanlineBytes = width + 1;
+        int numRowsPerBand = Math.max(1, Math.min(height, CropPng.BAND_SIZE / numScanlineBytes));
+        byte[] band = new byte[numScanlineBytes * numRowsPerBand];
+        int bandPos = 0;
+
+        byte[] row = new byte[numScanlineBytes];
+        byte[] prevRow = new byte[numScanlineBytes];
+
+        List<Layer> pending = new ArrayList<>(layers);
+        pending.sort(Comparator.comparingInt(layer -> layer.tile.dstY));
+        int nextPending = 0;
+        List<Layer> active = new ArrayList<>();
+
+        for (int y = 0; y < height; y++) {
+            while (nextPending < pending.size() && pending.get(nextPending).tile.dstY == y) {
+                activate(active, pending.get(nextPending++));
+            }
+
+            Arrays.fill(row, 1, numScanlineBytes, (byte) backgroundIndex);
+            for (Layer layer : active) {
+                drawRow(layer, y, row);
+            }
+
+            if (y > 0 && Arrays.equals(row, 1, numScanlineBytes, prevRow, 1, numScanlineBytes)) {
+                band[bandPos] = (byte) PngFilter.UP.ordinal();
+                Arrays.fill(band, bandPos + 1, bandPos + numScanlineBytes, (byte) 0);
+            } else {
+                band[bandPos] = (byte) PngFilter.SUB.ordinal();
+                band[bandPos + 1] = row[1];
+                for (int i = 2; i < numScanlineBytes; i++) {
+                    band[bandPos + i] = (byte) (row[i] - row[i - 1]);
+                }
+            }
+            bandPos += numScanlineBytes;
+
+            if (bandPos == band.length) {
+                buf.writeImageBytes(band, 0, bandPos);
+                bandPos = 0;
+            }
+
+            byte[] tmp = prevRow;
+            prevRow = row;
+            row = tmp;
+
+            for (int i = active.size() - 1; i >= 0; i--) {
+                Layer layer = active.get(i);
+                if (layer.tile.dstBottom() == y + 1) {
+                    active.remove(i);
+                    releaseInflater(layer);
+                }
+            }
+        }
+
+        if (bandPos > 0) {
+            buf.writeImageBytes(band, 0, bandPos);
+        }
+    }
+
+    private void activate(List<Layer> active, Layer layer) {
+        if (layer.tile.height == 0 || layer.tile.width == 0) {
+            return;
+        }
+
+        layer.inflater = acquireInflater();
+        layer.decoder = new RowDecoder(new PngReader(layer.tile.src, layer.inflater), layer.tile.x + layer.tile.width);
+
+        // Keeps the drawing order.
+        int i = active.size();
+        while (i > 0 && active.get(i - 1).order > layer.order) {
+            i--;
+        }
+        active.add(i, layer);
+    }
+
+    private Inflater acquireInflater() {
+        Inflater inflater = inflaterPool.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    private void releaseInflater(Layer layer) {
+        if (layer.inflater != null) {
+            inflaterPool.add(layer.inflater);
+            layer.inflater = null;
+            layer.decoder = null;
+        }
+    }
+
+    private static void drawRow(Layer layer, int y, byte[] row) {
+        Tile tile = layer.tile;
+        int scaleFactor = tile.scaleFactor;
+
+        byte[] src = layer.decoder.readRow(tile.y + (y - tile.dstY) / scaleFactor);
+        int srcPos = layer.decoder.rowOffset() + tile.x;
+        int dstPos = 1 + tile.dstX;
+        byte[] colorMap = layer.colorMap;
+
+        for (int x = 0; x < tile.width; x++) {
+            byte index = colorMap[src[srcPos + x] & 0xff];
+            for (int i = 0; i < scaleFactor; i++) {
+                row[dstPos + i] = index;
+            }
+            dstPos += scaleFactor;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package me.k11i.croppng;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static me.k11i.croppng.PngConsts.*;
+
+/**
+ * Exercises the code paths of cropping with a built-in tiny image, for {@link CropPng#warmUp()}.
+ *
+ * <p>
+ * The image is generated in memory so that warming up does not need any resource file.
+ * Its rows are filtered with every filter type in turn, so that all of the {@link PngFilter} methods are executed.
+ * </p>
+ */
+class WarmUp {
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 10;
+    private static final int NUM_ITERATIONS = 5;
+
+    static void run() {
+        byte[] image = createImage();
+        byte[] indices = new byte[WIDTH * HEIGHT * 4];
+        int[] colors = new int[WIDTH * HEIGHT * 4];
+
+        for (int i = 0; i < NUM_ITERATIONS; i++) {
+            for (int level = 0; level <= 9; level++) {
+                CropPng cropPng = CropPng.compressionLevel(level);
+
+                cropPng.crop(image, 0, 0, WIDTH, HEIGHT, 1);
+                cropPng.crop(image, 3, HEIGHT / 2, WIDTH / 2, HEIGHT / 2, 2);
+            }
+
+            CropPng cropPng = CropPng.defaultLevel();
+            cropPng.decodeIndexed(image, 1, 1, WIDTH / 2, HEIGHT / 2, 2, indices, 0);
+            cropPng.decodeArgb(image, 1, 1, WIDTH / 2, HEIGHT / 2, 2, colors, 0);
+
+            try {
+                cropPng.crop(new ByteArrayInputStream(image), 2, 2, WIDTH - 2, HEIGHT - 2, 1, true);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Creates a {@code 16x10} indexed-color PNG image with a grayscale palette whose first entry is transparent.
+     */
+    static byte[] createImage() {
+        int numScanlineBytes = WIDTH + 1;
+        byte[] imageBytes = new byte[numScanlineBytes * HEIGHT];
+
+        for (int y = 0; y < HEIGHT; y++) {
+            int pos = numScanlineBytes * y;
+            imageBytes[pos] = (byte) (y % PngFilter.values().length);
+            for (int x = 0; x < WIDTH; x++) {
+                imageBytes[pos + 1 + x] = (byte) (x * 7 + y * 31);
+            }
+        }
+
+        byte[] plte = new byte[256 * 3];
+        for (int i = 0; i < 256; i++) {
+            Arrays.fill(plte, i * 3, i * 3 + 3, (byte) i);
+        }
+
+        ByteBuffer ihdr = ByteBuffer.allocate(IHDR_CHUNK_LEN)
+                .putInt(WIDTH)
+                .putInt(HEIGHT)
+                .put((byte) 8)
+                .put((byte) 3);
+
+        Deflater deflater = new Deflater();
+        try {
+            return toBytes(new PngWriteBuffer(1024, deflater)
+                    .writeBytes(ByteBuffer.allocate(8).putLong(0, PNG_SIGNATURE))
+                    .writeChunk(CHUNK_TYPE_IHDR, ihdr.array(), 0, IHDR_CHUNK_LEN)
+                    .writeChunk(CHUNK_TYPE_PLTE, plte, 0, plte.length)
+                    .writeChunk(CHUNK_TYPE_TRNS, new byte[1], 0, 1)
+                    .writeImage(imageBytes)
+                    .writeChunk(CHUNK_TYPE_IEND, new byte[0], 0, 0)
+                    .toByteBuffer());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer buf) {
+        return Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.limit());
+    }
+}
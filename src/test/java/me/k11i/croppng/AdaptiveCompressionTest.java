@@ -0,0 +1,98 @@
+package me.k11i.croppng;
+
+import ar.com.hjg.pngj.PngReaderByte;
+import me.k11i.croppng.CompressionDecision.Reason;
+import me.k11i.croppng.test.helper.TestImage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdaptiveCompressionTest {
+    private static final TestImage TEST_IMAGE = TestImage.SOCIAL;
+    private static final byte[] TEST_IMAGE_BYTES = TEST_IMAGE.loadImages()[0];
+
+    @Test
+    void testCropping() {
+        var sut = new AdaptiveCompression(10_000_000, 0);
+
+        for (int i = 0; i < 10; i++) {
+            var expected = CropPng.defaultLevel().crop(TEST_IMAGE_BYTES, i * 10, i * 20, 100, 50, 2);
+            var result = sut.crop(TEST_IMAGE_BYTES, i * 10, i * 20, 100, 50, 2);
+
+            assertThat(decodePng(toBytes(result))).containsExactly(decodePng(toBytes(expected)));
+        }
+
+        var decisions = sut.recentDecisions();
+        assertThat(decisions).hasSize(10);
+        for (var decision : decisions) {
+            assertThat(decision.numCroppedImageBytes()).isEqualTo(201L * 100);
+            assertThat(decision.actualNanos()).isPositive();
+            assertThat(decision.actualDeflateNanos()).isPositive();
+            assertThat(decision.actualSizeRatio()).isPositive();
+        }
+    }
+
+    @Test
+    void testLimits() {
+        var sut = new AdaptiveCompression(10_000_000, 0, new CropLimits(100 * 50, Long.MAX_VALUE, Long.MAX_VALUE));
+
+        assertThat(sut.crop(TEST_IMAGE_BYTES, 0, 0, 100, 50, 1).remaining()).isPositive();
+        assertThatThrownBy(() -> sut.crop(TEST_IMAGE_BYTES, 0, 0, 100, 50, 2))
+                .isInstanceOf(CropLimitExceededException.class);
+        assertThat(sut.recentDecisions()).hasSize(1);
+    }
+
+    @Test
+    void testDecisions() {
+        var cost = CropPng.defaultLevel().estimate(TEST_IMAGE_BYTES, 0, 0, 100, 100, 4);
+
+        var generous = new AdaptiveCompression(Long.MAX_VALUE, 0).decide(cost);
+        assertThat(generous.level()).isEqualTo(9);
+        assertThat(generous.reason()).isEqualTo(Reason.SMALLEST_WITHIN_BUDGET);
+
+        var tight = new AdaptiveCompression(1, 0).decide(cost);
+        assertThat(tight.level()).isEqualTo(1);
+        assertThat(tight.reason()).isEqualTo(Reason.FASTEST_OVER_BUDGET);
+
+        var loose = new AdaptiveCompression(Long.MAX_VALUE, 1).decide(cost);
+        assertThat(loose.level()).isEqualTo(1);
+        assertThat(loose.reason()).isEqualTo(Reason.TARGET_SIZE_RATIO_MET);
+
+        // A level whose predicted time exceeds the budget is not chosen.
+        long budget = generous.predictedNanos() - 1;
+        var limited = new AdaptiveCompression(budget, 0).decide(cost);
+        assertThat(limited.level()).isLessThan(9);
+        assertThat(limited.predictedNanos()).isLessThanOrEqualTo(budget);
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThatThrownBy(() -> new AdaptiveCompression(0, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new AdaptiveCompression(1, -0.1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new AdaptiveCompression(1, 0).predictedSizeRatio(10))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static byte[] decodePng(byte[] src) {
+        var reader = new PngReaderByte(new ByteArrayInputStream(src));
+        var result = new byte[reader.imgInfo.cols * reader.imgInfo.rows];
+
+        for (var i = 0; i < reader.imgInfo.rows; i++) {
+            var scanline = reader.readRowByte().getScanline();
+            System.arraycopy(scanline, 0, result, reader.imgInfo.cols * i, reader.imgInfo.cols);
+        }
+
+        return result;
+    }
+
+    private static byte[] toBytes(ByteBuffer buf) {
+        return Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.limit());
+    }
+}
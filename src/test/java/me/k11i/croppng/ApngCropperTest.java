@@ -0,0 +1,265 @@
+package me.k11i.croppng;
+
+import ar.com.hjg.pngj.PngReaderByte;
+import me.k11i.croppng.test.helper.CropParam;
+import me.k11i.croppng.test.helper.TestImage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ApngCropperTest {
+    private static final byte[] TEST_IMAGE_BYTES = TestImage.loadAnimatedImage();
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    static Stream<CropParam> cropParameters() {
+        var r = new SplittableRandom(1);
+        return Stream.generate(() -> {
+            int width = r.nextInt(1, WIDTH + 1);
+            int height = r.nextInt(1, HEIGHT + 1);
+            return new CropParam(
+                    r.nextInt(WIDTH - width + 1),
+                    r.nextInt(HEIGHT - height + 1),
+                    width,
+                    height,
+                    r.nextInt(1, 5));
+        }).limit(20);
+    }
+
+    @ParameterizedTest
+    @MethodSource("cropParameters")
+    void testCroppingEveryFrame(CropParam param) {
+        var result = new CropPng().crop(TEST_IMAGE_BYTES, param.x, param.y, param.width, param.height, param.scaleFactor);
+        var resultBytes = Arrays.copyOfRange(result.array(), result.arrayOffset(), result.limit());
+
+        var srcFrames = Frame.parse(TEST_IMAGE_BYTES);
+        var dstFrames = Frame.parse(resultBytes);
+        assertThat(dstFrames).hasSameSizeAs(srcFrames);
+
+        for (int i = 0; i < srcFrames.size(); i++) {
+            var src = srcFrames.get(i);
+            var dst = dstFrames.get(i);
+
+            int left = Math.max(param.x, src.x);
+            int top = Math.max(param.y, src.y);
+            int right = Math.min(param.x + param.width, src.x + src.width);
+            int bottom = Math.min(param.y + param.height, src.y + src.height);
+
+            if (right <= left || bottom <= top) {
+                // Replaced with 1x1 transparent frame
+                assertThat(dst.width).isEqualTo(1);
+                assertThat(dst.height).isEqualTo(1);
+                assertThat(decodePng(dst.png)).containsExactly((byte) 0);
+                continue;
+            }
+
+            assertThat(dst.x).describedAs("frame %d", i).isEqualTo((left - param.x) * param.scaleFactor);
+            assertThat(dst.y).describedAs("frame %d", i).isEqualTo((top - param.y) * param.scaleFactor);
+            assertThat(dst.width).describedAs("frame %d", i).isEqualTo((right - left) * param.scaleFactor);
+            assertThat(dst.height).describedAs("frame %d", i).isEqualTo((bottom - top) * param.scaleFactor);
+
+            var expected = cropAndScale(decodePng(src.png), src.width,
+                    left - src.x, top - src.y, right - left, bottom - top, param.scaleFactor);
+            assertThat(decodePng(dst.png)).describedAs("frame %d", i).containsExactly(expected);
+        }
+    }
+
+    @Test
+    void testSequenceNumbers() {
+        var result = new CropPng().crop(TEST_IMAGE_BYTES, 4, 4, 8, 8, 2);
+        var buf = ByteBuffer.wrap(Arrays.copyOfRange(result.array(), result.arrayOffset(), result.limit()));
+
+        int numFrames = -1;
+        int expectedSequenceNumber = 0;
+
+        for (int pos = 8; pos < buf.limit(); pos += 12 + buf.getInt(pos)) {
+            switch (chunkType(buf, pos)) {
+                case "acTL":
+                    numFrames = buf.getInt(pos + 8);
+                    break;
+                case "fcTL":
+                case "fdAT":
+                    assertThat(buf.getInt(pos + 8)).isEqualTo(expectedSequenceNumber++);
+                    break;
+            }
+        }
+
+        assertThat(numFrames).isEqualTo(Frame.parse(TEST_IMAGE_BYTES).size());
+    }
+
+    @Test
+    void testCorruptedFrameControl() {
+        int[][] frames = {
+                {0, 0, 0x7fff_ffff, 1},
+                {0, 0, 0x4000_0000, 4},
+                {-5, -5, 8, 8},
+                {0, 0, 0, 8},
+                {0, 0, 8, 0},
+                {WIDTH - 7, 0, 8, 8},
+                {0, HEIGHT - 7, 8, 8},
+                {0x7fff_fff0, 0, 0x20, 1},
+        };
+
+        for (var frame : frames) {
+            var corrupted = withFrameOfSecondFcTL(frame[0], frame[1], frame[2], frame[3]);
+            assertThatThrownBy(() -> new CropPng().crop(corrupted, 0, 0, 4, 4, 1))
+                    .describedAs("%s", Arrays.toString(frame))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("must be within the image");
+        }
+
+        var valid = withFrameOfSecondFcTL(WIDTH - 8, HEIGHT - 8, 8, 8);
+        assertThat(new CropPng().crop(valid, 0, 0, 4, 4, 1).remaining()).isPositive();
+    }
+
+    /**
+     * Returns a copy of the test image whose second fcTL chunk, which is the first one after the IDAT chunks,
+     * has the given frame.
+     */
+    private static byte[] withFrameOfSecondFcTL(int x, int y, int width, int height) {
+        var result = TEST_IMAGE_BYTES.clone();
+        var buf = ByteBuffer.wrap(result);
+        int numFcTLs = 0;
+
+        for (int pos = 8; pos < buf.limit(); pos += 12 + buf.getInt(pos)) {
+            if (chunkType(buf, pos).equals("fcTL") && ++numFcTLs == 2) {
+                int len = buf.getInt(pos);
+                buf.putInt(pos + 12, width)
+                        .putInt(pos + 16, height)
+                        .putInt(pos + 20, x)
+                        .putInt(pos + 24, y);
+
+                var crc = new CRC32();
+                crc.update(result, pos + 4, len + 4);
+                buf.putInt(pos + 8 + len, (int) crc.getValue());
+                return result;
+            }
+        }
+        throw new IllegalStateException("Test image has less than 2 fcTL chunks");
+    }
+
+    private static byte[] cropAndScale(byte[] src, int srcWidth, int x, int y, int width, int height, int scaleFactor) {
+        var result = new byte[width * height * scaleFactor * scaleFactor];
+        for (int dy = 0; dy < height * scaleFactor; dy++) {
+            for (int dx = 0; dx < width * scaleFactor; dx++) {
+                result[dy * width * scaleFactor + dx] = src[(y + dy / scaleFactor) * srcWidth + x + dx / scaleFactor];
+            }
+        }
+        return result;
+    }
+
+    private static byte[] decodePng(byte[] src) {
+        var reader = new PngReaderByte(new ByteArrayInputStream(src));
+        var result = new byte[reader.imgInfo.cols * reader.imgInfo.rows];
+
+        for (var i = 0; i < reader.imgInfo.rows; i++) {
+            var scanline = reader.readRowByte().getScanline();
+            System.arraycopy(scanline, 0, result, reader.imgInfo.cols * i, reader.imgInfo.cols);
+        }
+
+        return result;
+    }
+
+    private static String chunkType(ByteBuffer buf, int pos) {
+        return new String(buf.array(), pos + 4, 4, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A frame of APNG image, which is converted into a standalone PNG image.
+     */
+    private static class Frame {
+        int x;
+        int y;
+        int width;
+        int height;
+        byte[] png;
+
+        static List<Frame> parse(byte[] apng) {
+            var buf = ByteBuffer.wrap(apng);
+            var result = new ArrayList<Frame>();
+
+            byte[] ihdr = null;
+            byte[] plte = null;
+            Frame frame = null;
+            ByteArrayOutputStream data = null;
+
+            for (int pos = 8; pos < buf.limit(); pos += 12 + buf.getInt(pos)) {
+                int len = buf.getInt(pos);
+
+                switch (chunkType(buf, pos)) {
+                    case "IHDR":
+                        ihdr = Arrays.copyOfRange(apng, pos + 8, pos + 8 + len);
+                        break;
+                    case "PLTE":
+                        plte = Arrays.copyOfRange(apng, pos + 8, pos + 8 + len);
+                        break;
+                    case "fcTL":
+                        if (frame != null) {
+                            frame.png = toPng(ihdr, plte, frame, data.toByteArray());
+                        }
+                        frame = new Frame();
+                        frame.width = buf.getInt(pos + 12);
+                        frame.height = buf.getInt(pos + 16);
+                        frame.x = buf.getInt(pos + 20);
+                        frame.y = buf.getInt(pos + 24);
+                        result.add(frame);
+                        data = new ByteArrayOutputStream();
+                        break;
+                    case "IDAT":
+                        if (data != null) {
+                            data.write(apng, pos + 8, len);
+                        }
+                        break;
+                    case "fdAT":
+                        data.write(apng, pos + 12, len - 4);
+                        break;
+                }
+            }
+            if (frame != null) {
+                frame.png = toPng(ihdr, plte, frame, data.toByteArray());
+            }
+
+            return result;
+        }
+
+        private static byte[] toPng(byte[] ihdr, byte[] plte, Frame frame, byte[] data) {
+            var header = ByteBuffer.wrap(ihdr.clone());
+            header.putInt(0, frame.width);
+            header.putInt(4, frame.height);
+
+            var out = new ByteArrayOutputStream();
+            out.writeBytes(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+            writeChunk(out, "IHDR", header.array());
+            writeChunk(out, "PLTE", plte);
+            writeChunk(out, "IDAT", data);
+            writeChunk(out, "IEND", new byte[0]);
+            return out.toByteArray();
+        }
+
+        private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) {
+            var typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+            var crc = new CRC32();
+            crc.update(typeBytes);
+            crc.update(data);
+
+            out.writeBytes(ByteBuffer.allocate(4).putInt(data.length).array());
+            out.writeBytes(typeBytes);
+            out.writeBytes(data);
+            out.writeBytes(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+        }
+    }
+}
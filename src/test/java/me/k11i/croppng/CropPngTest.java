@@ -9,14 +9,23 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
 import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.Inflater;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class CropPngTest {
     private static final TestImage TEST_IMAGE = TestImage.SOCIAL;
@@ -42,6 +51,326 @@ class CropPngTest {
         }
     }
 
+    @ParameterizedTest
+    @MethodSource("cropParameters")
+    void testStreamCropping(CropParam param) throws IOException {
+        CropPng sut = new CropPng();
+
+        for (int i = 0; i < TEST_IMAGE_BYTES.length; i++) {
+            var expected = sut.crop(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor);
+            var expectedBytes = Arrays.copyOfRange(expected.array(), expected.arrayOffset(), expected.limit());
+
+            var in = new ByteArrayInputStream(TEST_IMAGE_BYTES[i]);
+            var result = sut.crop(in, param.x, param.y, param.width, param.height, param.scaleFactor, true);
+            var resultBytes = Arrays.copyOfRange(result.array(), result.arrayOffset(), result.limit());
+
+            assertThat(resultBytes)
+                    .describedAs("Using test data PNG_TEST_IMAGES[%d]", i)
+                    .containsExactly(expectedBytes);
+
+            in = new ByteArrayInputStream(TEST_IMAGE_BYTES[i]);
+            result = sut.crop(in, param.x, param.y, param.width, param.height, param.scaleFactor, false);
+            resultBytes = Arrays.copyOfRange(result.array(), result.arrayOffset(), result.limit());
+
+            assertThat(decodePng(resultBytes))
+                    .describedAs("Using test data PNG_TEST_IMAGES[%d]", i)
+                    .containsExactly(decodePng(expectedBytes));
+        }
+    }
+
+    @Test
+    void testStreamCropping_shouldNotReadBeyondRequiredRows() throws IOException {
+        var in = new ByteArrayInputStream(TEST_IMAGE_BYTES[0]);
+        new CropPng().crop(in, 0, 0, TEST_IMAGE.width, 1, 1, false);
+
+        assertThat(in.available()).isGreaterThan(0);
+    }
+
+    @Test
+    void testStreamCroppingOfAnimatedImage() throws IOException {
+        var apng = TestImage.loadAnimatedImage();
+        var result = toBytes(new CropPng().crop(new ByteArrayInputStream(apng), 4, 4, 16, 8, 2, true));
+
+        // The default image is cropped as a static image.
+        var expected = new byte[32 * 16];
+        new CropPng().decodeIndexed(apng, 4, 4, 16, 8, 2, expected, 0);
+        assertThat(decodePng(result)).containsExactly(expected);
+        assertThat(new String(result, StandardCharsets.ISO_8859_1))
+                .doesNotContain("acTL")
+                .doesNotContain("fcTL")
+                .doesNotContain("fdAT");
+    }
+
+    @Test
+    void testStreamCroppingFromNonBlockingChannel() throws IOException {
+        var pipe = Pipe.open();
+        try {
+            pipe.source().configureBlocking(false);
+            assertThatThrownBy(() -> new CropPng().crop(pipe.source(), 0, 0, 1, 1, 1, false))
+                    .isInstanceOf(IllegalArgumentException.class);
+        } finally {
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+
+    @Test
+    void testStreamCroppingWithLimitOfCopiedChunks() throws IOException {
+        var headBytes = new PngReader(TEST_IMAGE_BYTES[0], new Inflater()).head().remaining();
+        var sut = new CropPng(6, new CropLimits(Long.MAX_VALUE, Long.MAX_VALUE, headBytes - 1));
+
+        assertThatThrownBy(() -> sut.crop(new ByteArrayInputStream(TEST_IMAGE_BYTES[0]), 0, 0, 1, 1, 1, false))
+                .isInstanceOf(CropLimitExceededException.class);
+    }
+
+    @ParameterizedTest
+    @MethodSource("cropParameters")
+    void testPipelinedCropping(CropParam param) {
+        CropPng sut = new CropPng();
+        var executor = Executors.newSingleThreadExecutor();
+
+        try {
+            for (int i = 0; i < TEST_IMAGE_BYTES.length; i++) {
+                var expected = sut.crop(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor);
+                var result = sut.cropPipelined(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor, executor);
+
+                assertThat(Arrays.copyOfRange(result.array(), result.arrayOffset(), result.limit()))
+                        .describedAs("Using test data PNG_TEST_IMAGES[%d]", i)
+                        .containsExactly(Arrays.copyOfRange(expected.array(), expected.arrayOffset(), expected.limit()));
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("cropParameters")
+    void testPipelinedCroppingWithSameThreadExecutor(CropParam param) {
+        CropPng sut = new CropPng();
+
+        for (int i = 0; i < TEST_IMAGE_BYTES.length; i++) {
+            var expected = sut.crop(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor);
+            var result = sut.cropPipelined(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor, Runnable::run);
+
+            assertThat(Arrays.copyOfRange(result.array(), result.arrayOffset(), result.limit()))
+                    .describedAs("Using test data PNG_TEST_IMAGES[%d]", i)
+                    .containsExactly(Arrays.copyOfRange(expected.array(), expected.arrayOffset(), expected.limit()));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("cropParameters")
+    void testCroppingByRows(CropParam param) {
+        CropPng sut = new CropPng();
+        var rect = new CropPng.Rectangle(param.x, param.y, param.width, param.height);
+        var inflater = new Inflater();
+
+        try {
+            for (int i = 0; i < TEST_IMAGE_BYTES.length; i++) {
+                var expected = sut.crop(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor);
+                var result = sut.cropByRows(new PngReader(TEST_IMAGE_BYTES[i], inflater), rect, param.scaleFactor, CancellationToken.NONE);
+
+                assertThat(Arrays.copyOfRange(result.array(), result.arrayOffset(), result.limit()))
+                        .describedAs("Using test data PNG_TEST_IMAGES[%d]", i)
+                        .containsExactly(Arrays.copyOfRange(expected.array(), expected.arrayOffset(), expected.limit()));
+            }
+
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("cropParameters")
+    void testMultiScaleCropping(CropParam param) {
+        CropPng sut = new CropPng();
+        int[] scaleFactors = {param.scaleFactor, 1, 3, param.scaleFactor};
+        var executor = Executors.newFixedThreadPool(2);
+
+        try {
+            for (int i = 0; i < TEST_IMAGE_BYTES.length; i++) {
+                var results = sut.cropMultiScale(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, scaleFactors);
+                var concurrentResults = sut.cropMultiScale(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, scaleFactors, executor);
+
+                assertThat(results).containsOnlyKeys(1, 3, param.scaleFactor);
+                assertThat(concurrentResults).containsOnlyKeys(1, 3, param.scaleFactor);
+
+                for (int scaleFactor : results.keySet()) {
+                    var expected = sut.crop(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, scaleFactor);
+                    var expectedBytes = Arrays.copyOfRange(expected.array(), expected.arrayOffset(), expected.limit());
+
+                    for (var result : List.of(results.get(scaleFactor), concurrentResults.get(scaleFactor))) {
+                        assertThat(Arrays.copyOfRange(result.array(), result.arrayOffset(), result.limit()))
+                                .describedAs("Using test data PNG_TEST_IMAGES[%d] with scale factor %d", i, scaleFactor)
+                                .containsExactly(expectedBytes);
+                    }
+                }
+            }
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("cropParameters")
+    void testOrientedCropping(CropParam param) {
+        CropPng sut = new CropPng();
+        int width = param.width * param.scaleFactor;
+        int height = param.height * param.scaleFactor;
+
+        var cropped = sut.crop(TEST_IMAGE_BYTES[0], param.x, param.y, param.width, param.height, param.scaleFactor);
+        var pixels = decodePng(Arrays.copyOfRange(cropped.array(), cropped.arrayOffset(), cropped.limit()));
+
+        for (var orientation : Orientation.values()) {
+            int dstWidth = orientation.swapsDimensions() ? height : width;
+            int dstHeight = orientation.swapsDimensions() ? width : height;
+            var expected = new byte[pixels.length];
+
+            for (int v = 0; v < dstHeight; v++) {
+                for (int u = 0; u < dstWidth; u++) {
+                    // Transposes first, then flips.
+                    int a = orientation.flipsHorizontally ? dstWidth - 1 - u : u;
+                    int b = orientation.flipsVertically ? dstHeight - 1 - v : v;
+                    int x = orientation.swapsDimensions() ? b : a;
+                    int y = orientation.swapsDimensions() ? a : b;
+                    expected[v * dstWidth + u] = pixels[y * width + x];
+                }
+            }
+
+            var result = sut.crop(TEST_IMAGE_BYTES[0], param.x, param.y, param.width, param.height, param.scaleFactor, orientation);
+            assertThat(decodePng(Arrays.copyOfRange(result.array(), result.arrayOffset(), result.limit())))
+                    .describedAs("%s", orientation)
+                    .containsExactly(expected);
+        }
+    }
+
+    @Test
+    void testInvalidRectangle() {
+        CropPng sut = new CropPng();
+        int[][] rectangles = {
+                {-1, 0, 10, 10},
+                {0, -1, 10, 10},
+                {0, 0, -1, 10},
+                {0, 0, 10, -1},
+                {0, 0, 5, 0},
+                {0, 0, 0, 5},
+                {10, 10, 0, 0},
+                {TEST_IMAGE.width, TEST_IMAGE.height, 0, 0},
+                {Integer.MIN_VALUE, 0, 10, 10},
+                {1, 0, TEST_IMAGE.width, 10},
+                {0, 1, 10, TEST_IMAGE.height},
+                {Integer.MAX_VALUE, 0, 1, 1},
+        };
+
+        for (var r : rectangles) {
+            assertThatThrownBy(() -> sut.crop(TEST_IMAGE_BYTES[0], r[0], r[1], r[2], r[3], 1))
+                    .describedAs("%s", Arrays.toString(r))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void testOrientationOfExifValue() {
+        for (var orientation : Orientation.values()) {
+            assertThat(Orientation.ofExifValue(orientation.exifValue())).isEqualTo(orientation);
+        }
+        assertThatThrownBy(() -> Orientation.ofExifValue(9))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @ParameterizedTest
+    @MethodSource("cropParameters")
+    void testDecoding(CropParam param) {
+        CropPng sut = new CropPng();
+        int numPixels = param.width * param.height * param.scaleFactor * param.scaleFactor;
+
+        for (int i = 0; i < TEST_IMAGE_BYTES.length; i++) {
+            var cropped = sut.crop(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor);
+            var expected = decodePng(Arrays.copyOfRange(cropped.array(), cropped.arrayOffset(), cropped.limit()));
+
+            var indices = new byte[numPixels + 1];
+            var palette = sut.decodeIndexed(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor, indices, 1);
+            assertThat(Arrays.copyOfRange(indices, 1, indices.length))
+                    .describedAs("Using test data PNG_TEST_IMAGES[%d]", i)
+                    .containsExactly(expected);
+
+            var argb = new int[numPixels];
+            sut.decodeArgb(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor, argb, 0);
+            var rgba = new int[numPixels];
+            sut.decodeRgba(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor, rgba, 0);
+
+            for (int j = 0; j < numPixels; j++) {
+                assertThat(argb[j]).isEqualTo(palette.argb(expected[j] & 0xff));
+                assertThat(rgba[j]).isEqualTo(palette.rgba(expected[j] & 0xff));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("cropParameters")
+    void testCroppingWithCancellationToken(CropParam param) {
+        CropPng sut = new CropPng();
+        var token = CancellationToken.withTimeout(Duration.ofMinutes(1));
+
+        for (int i = 0; i < TEST_IMAGE_BYTES.length; i++) {
+            var expected = sut.crop(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor);
+            var result = sut.crop(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor, token);
+
+            assertThat(decodePng(Arrays.copyOfRange(result.array(), result.arrayOffset(), result.limit())))
+                    .describedAs("Using test data PNG_TEST_IMAGES[%d]", i)
+                    .containsExactly(decodePng(Arrays.copyOfRange(expected.array(), expected.arrayOffset(), expected.limit())));
+        }
+    }
+
+    @Test
+    void testCancellation() {
+        CropPng sut = new CropPng();
+        var expected = sut.crop(TEST_IMAGE_BYTES[0], 0, 0, 100, 100, 4);
+
+        var cancelled = CancellationToken.create();
+        assertThat(cancelled.isCancelled()).isFalse();
+        cancelled.cancel();
+        assertThatThrownBy(() -> sut.crop(TEST_IMAGE_BYTES[0], 0, 0, 100, 100, 4, cancelled))
+                .isInstanceOf(CropCancelledException.class);
+
+        var expired = CancellationToken.withDeadline(System.nanoTime() - 1);
+        assertThatThrownBy(() -> sut.crop(TEST_IMAGE_BYTES[0], 0, 0, 100, 100, 4, expired))
+                .isInstanceOf(CropCancelledException.class);
+
+        // The same object can be used after the cancellation.
+        assertThat(sut.crop(TEST_IMAGE_BYTES[0], 0, 0, 100, 100, 4)).isEqualTo(expected);
+    }
+
+    @Test
+    void testCancellationInTheMiddleOfCropping() {
+        CropPng sut = new CropPng();
+        int width = TEST_IMAGE.width;
+        int height = TEST_IMAGE.height;
+        var expected = toBytes(new CropPng().crop(TEST_IMAGE_BYTES[0], 0, 0, width, height, 2, CancellationToken.create()));
+
+        // Cancels at every check while inflating, reverse-filtering and deflating, until the cropping completes.
+        int numCancellations = 0;
+        for (int numChecks = 0; ; numChecks++) {
+            try {
+                var result = sut.crop(TEST_IMAGE_BYTES[0], 0, 0, width, height, 2, new CancelledAfterChecks(numChecks));
+                assertThat(toBytes(result)).containsExactly(expected);
+                break;
+            } catch (CropCancelledException e) {
+                numCancellations++;
+            }
+
+            // The same object produces the same bytes as a fresh one after the cancellation.
+            assertThat(toBytes(sut.crop(TEST_IMAGE_BYTES[0], 0, 0, width, height, 2, CancellationToken.create())))
+                    .describedAs("Cancelled at check #%d", numChecks)
+                    .containsExactly(expected);
+        }
+
+        // At least one check while inflating and several checks while deflating.
+        assertThat(numCancellations).isGreaterThan(4);
+    }
+
     @Test
     void testCompressionLevel() {
         var l1 = new CropPng(1).crop(TEST_IMAGE_BYTES[0], 0, 0, TEST_IMAGE.width / 8, TEST_IMAGE.height / 8, 2);
@@ -68,6 +397,88 @@ class CropPngTest {
         assertThat(results).hasSize(1);
     }
 
+    @Test
+    void testWarmUp() {
+        CropPng.warmUp();
+
+        var image = WarmUp.createImage();
+        var result = CropPng.defaultLevel().crop(image, 0, 0, 16, 10, 1);
+        var resultBytes = Arrays.copyOfRange(result.array(), result.arrayOffset(), result.limit());
+
+        assertThat(decodePng(resultBytes)).containsExactly(decodePng(image));
+    }
+
+    @Test
+    void testEstimate() {
+        var cost = new CropPng().estimate(TEST_IMAGE_BYTES[0], 10, 20, 30, 40, 2);
+
+        assertThat(cost.srcWidth()).isEqualTo(TEST_IMAGE.width);
+        assertThat(cost.srcHeight()).isEqualTo(TEST_IMAGE.height);
+        assertThat(cost.numOutputPixels()).isEqualTo(60L * 80);
+        assertThat(cost.numBytesToInflate()).isEqualTo((TEST_IMAGE.width + 1L) * 59 + 40 + 1);
+        assertThat(cost.maxRowsWalkedBack()).isEqualTo(20);
+        assertThat(cost.numCroppedImageBytes()).isEqualTo(61L * 80);
+
+        var result = new CropPng(0).crop(TEST_IMAGE_BYTES[0], 10, 20, 30, 40, 2);
+        assertThat((long) result.limit()).isLessThanOrEqualTo(cost.maxOutputBytes());
+    }
+
+    @Test
+    void testLimits() {
+        var cost = new CropPng().estimate(TEST_IMAGE_BYTES[0], 0, 0, 100, 100, 4);
+
+        var sut = new CropPng(6, new CropLimits(cost.numOutputPixels() - 1, Long.MAX_VALUE, Long.MAX_VALUE));
+        assertThat(sut.limits().allows(cost)).isFalse();
+        assertThatThrownBy(() -> sut.crop(TEST_IMAGE_BYTES[0], 0, 0, 100, 100, 4))
+                .isInstanceOf(CropLimitExceededException.class);
+        assertThatThrownBy(() -> sut.crop(new ByteArrayInputStream(TEST_IMAGE_BYTES[0]), 0, 0, 100, 100, 4, false))
+                .isInstanceOf(CropLimitExceededException.class);
+
+        var limits = new CropLimits(cost.numOutputPixels(), cost.numBytesToInflate(), cost.maxOutputBytes());
+        assertThat(limits.allows(cost)).isTrue();
+        new CropPng(6, limits).crop(TEST_IMAGE_BYTES[0], 0, 0, 100, 100, 4);
+    }
+
+    @Test
+    void testHugeImageIsRejectedBeforeInflating() {
+        // Declares 60000x60000 pixels in the IHDR chunk.
+        var src = TEST_IMAGE_BYTES[0].clone();
+        var buf = ByteBuffer.wrap(src);
+        buf.putInt(16, 60000);
+        buf.putInt(20, 60000);
+
+        assertThat(new CropPng().estimate(src, 0, 0, 60000, 60000, 1).numBytesToInflate())
+                .isEqualTo(60001L * 60000);
+        assertThatThrownBy(() -> new CropPng().crop(src, 0, 0, 60000, 60000, 1))
+                .isInstanceOf(CropLimitExceededException.class);
+    }
+
+    @Test
+    void testLeftmostColumnsToReverseFilter() {
+        int srcWidth = 4;
+        int[] filterTypes = {
+                PngFilter.NONE.ordinal(),
+                PngFilter.PAETH.ordinal(),
+                PngFilter.UP.ordinal(),
+                PngFilter.SUB.ordinal(),
+                PngFilter.UP.ordinal(),
+                PngFilter.UP.ordinal(),
+                PngFilter.NONE.ordinal(),
+        };
+        var srcImageBytes = new byte[(srcWidth + 1) * filterTypes.length];
+        for (int i = 0; i < filterTypes.length; i++) {
+            srcImageBytes[(srcWidth + 1) * i] = (byte) filterTypes[i];
+        }
+
+        // Rows from the Sub row to the bottom; only the Sub row needs the columns on the left of the rectangle.
+        assertThat(CropPng.leftmostColumnsToReverseFilter(srcImageBytes, new CropPng.Rectangle(2, 4, 2, 3), srcWidth))
+                .containsExactly(0, 2, 2, 2);
+
+        // The Paeth row refers to the left columns of the row above.
+        assertThat(CropPng.leftmostColumnsToReverseFilter(srcImageBytes, new CropPng.Rectangle(2, 2, 2, 1), srcWidth))
+                .containsExactly(0, 0, 2);
+    }
+
     private static byte[] decodePng(byte[] src) {
         var reader = new PngReaderByte(new ByteArrayInputStream(src));
         var result = new byte[reader.imgInfo.cols * reader.imgInfo.rows];
@@ -81,6 +492,27 @@ class CropPngTest {
         return result;
     }
 
+    /**
+     * Token that is cancelled at the {@code (numChecks + 1)}-th check, which cancels a crop at each point where it is checked.
+     */
+    private static class CancelledAfterChecks extends CancellationToken {
+        private int numChecksToPass;
+
+        CancelledAfterChecks(int numChecks) {
+            super(0, false);
+            this.numChecksToPass = numChecks;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return numChecksToPass-- <= 0;
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer buf) {
+        return Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.limit());
+    }
+
     @FunctionalInterface
     interface FunctionWithException<T, R, E extends Exception> {
         R apply(T t) throws E;
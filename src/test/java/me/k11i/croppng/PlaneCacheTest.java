@@ -0,0 +1,133 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.test.helper.TestImage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PlaneCacheTest {
+    private static final TestImage TEST_IMAGE = TestImage.SOCIAL;
+    private static final byte[][] TEST_IMAGE_BYTES = TEST_IMAGE.loadImages();
+
+    @Test
+    void testCroppingFromCachedPlane(@TempDir Path dir) throws IOException {
+        var sut = new PlaneCache(dir, Long.MAX_VALUE);
+        var cropPng = new CropPng();
+
+        TEST_IMAGE.randomCropParameters(new SplittableRandom(1)).limit(20).forEach(param -> {
+            for (int i = 0; i < TEST_IMAGE_BYTES.length; i++) {
+                try {
+                    var expected = cropPng.crop(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor);
+                    var result = cropPng.crop(sut.get(TEST_IMAGE_BYTES[i]), param.x, param.y, param.width, param.height, param.scaleFactor);
+
+                    assertThat(toBytes(result))
+                            .describedAs("Using test data PNG_TEST_IMAGES[%d] with %s", i, param)
+                            .containsExactly(toBytes(expected));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        assertThat(sut.size()).isEqualTo(TEST_IMAGE_BYTES.length);
+    }
+
+    @Test
+    void testReopening(@TempDir Path dir) throws IOException {
+        var sut = new PlaneCache(dir, Long.MAX_VALUE);
+        for (var src : TEST_IMAGE_BYTES) {
+            sut.get(src);
+        }
+
+        var reopened = new PlaneCache(dir, Long.MAX_VALUE);
+        assertThat(reopened.size()).isEqualTo(sut.size());
+        assertThat(reopened.totalBytes()).isEqualTo(sut.totalBytes());
+
+        var plane = reopened.get(TEST_IMAGE_BYTES[0]);
+        assertThat(plane.key()).isEqualTo(PlaneCache.key(TEST_IMAGE_BYTES[0]));
+        assertThat(reopened.size()).isEqualTo(sut.size());
+    }
+
+    @Test
+    void testLastModifiedTimeIsUpdatedAtIntervals(@TempDir Path dir) throws IOException {
+        var src = TEST_IMAGE_BYTES[0];
+        new PlaneCache(dir, Long.MAX_VALUE).get(src);
+
+        var file = dir.resolve(PlaneCache.key(src) + ".plane");
+        var old = FileTime.fromMillis(1_000_000);
+        Files.setLastModifiedTime(file, old);
+
+        // The first hit after reopening persists the recency, and the following hits do not touch the file.
+        var sut = new PlaneCache(dir, Long.MAX_VALUE);
+        sut.get(src);
+        assertThat(Files.getLastModifiedTime(file)).isNotEqualTo(old);
+
+        Files.setLastModifiedTime(file, old);
+        sut.get(src);
+        assertThat(Files.getLastModifiedTime(file)).isEqualTo(old);
+    }
+
+    @Test
+    void testEviction(@TempDir Path dir) throws IOException {
+        var sizes = new long[TEST_IMAGE_BYTES.length];
+        var unbounded = new PlaneCache(dir.resolve("unbounded"), Long.MAX_VALUE);
+        for (int i = 0; i < TEST_IMAGE_BYTES.length; i++) {
+            long before = unbounded.totalBytes();
+            unbounded.get(TEST_IMAGE_BYTES[i]);
+            sizes[i] = unbounded.totalBytes() - before;
+        }
+
+        // Only the last two images fit in the cache.
+        long maxBytes = sizes[sizes.length - 1] + sizes[sizes.length - 2];
+        var sut = new PlaneCache(dir.resolve("bounded"), maxBytes);
+        for (var src : TEST_IMAGE_BYTES) {
+            sut.get(src);
+        }
+
+        assertThat(sut.size()).isEqualTo(2);
+        assertThat(sut.totalBytes()).isLessThanOrEqualTo(maxBytes);
+        try (var files = Files.list(dir.resolve("bounded"))) {
+            assertThat(files.count()).isEqualTo(2L);
+        }
+    }
+
+    @Test
+    void testLimits(@TempDir Path dir) throws IOException {
+        var src = TEST_IMAGE_BYTES[0];
+        long numPixels = (long) TEST_IMAGE.width * TEST_IMAGE.height;
+
+        var tooSmall = new PlaneCache(dir, Long.MAX_VALUE, new CropLimits(numPixels - 1, Long.MAX_VALUE, Long.MAX_VALUE));
+        assertThatThrownBy(() -> tooSmall.get(src))
+                .isInstanceOf(CropLimitExceededException.class);
+        assertThat(tooSmall.size()).isEqualTo(0);
+
+        var enough = new PlaneCache(dir, Long.MAX_VALUE, new CropLimits(numPixels, Long.MAX_VALUE, Long.MAX_VALUE));
+        assertThat(enough.get(src).width()).isEqualTo(TEST_IMAGE.width);
+    }
+
+    @Test
+    void testBrokenFileIsDecodedAgain(@TempDir Path dir) throws IOException {
+        var src = TEST_IMAGE_BYTES[0];
+        var sut = new PlaneCache(dir, Long.MAX_VALUE);
+        var expected = toBytes(new CropPng().crop(sut.get(src), 10, 20, 30, 40, 2));
+
+        var reopened = new PlaneCache(dir, Long.MAX_VALUE);
+        Files.write(dir.resolve(PlaneCache.key(src) + ".plane"), new byte[]{1, 2, 3});
+
+        assertThat(toBytes(new CropPng().crop(reopened.get(src), 10, 20, 30, 40, 2))).containsExactly(expected);
+    }
+
+    private static byte[] toBytes(ByteBuffer buf) {
+        return Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.limit());
+    }
+}
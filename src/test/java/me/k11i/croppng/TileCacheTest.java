@@ -0,0 +1,83 @@
+package me.k11i.croppng;
+
+import me.k11i.croppng.test.helper.TestImage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TileCacheTest {
+    private static final TestImage TEST_IMAGE = TestImage.SOCIAL;
+    private static final byte[][] TEST_IMAGE_BYTES = TEST_IMAGE.loadImages();
+
+    @Test
+    void testCroppingWithTileCache() {
+        var sut = new TileCache(Long.MAX_VALUE);
+        var cropPng = new CropPng();
+
+        TEST_IMAGE.randomCropParameters(new SplittableRandom(1)).limit(20).forEach(param -> {
+            long numMisses = sut.numMisses();
+            var distinctOutputs = new HashSet<ByteBuffer>();
+
+            // The test images have the same pixels encoded with different filters, so only distinct outputs miss the cache
+            // (the first image has ancillary chunks that the others do not).
+            for (int i = 0; i < TEST_IMAGE_BYTES.length; i++) {
+                var expected = cropPng.crop(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor);
+                var result = cropPng.crop(TEST_IMAGE_BYTES[i], param.x, param.y, param.width, param.height, param.scaleFactor, sut);
+
+                assertThat(toBytes(result))
+                        .describedAs("Using test data PNG_TEST_IMAGES[%d] with %s", i, param)
+                        .containsExactly(toBytes(expected));
+                distinctOutputs.add(expected);
+            }
+
+            assertThat(sut.numMisses() - numMisses).isEqualTo(distinctOutputs.size());
+        });
+
+        assertThat(sut.numHits()).isGreaterThan(0);
+    }
+
+    @Test
+    void testKeyExcludesPosition() {
+        var cropPng = new CropPng();
+        var sut = new TileCache(Long.MAX_VALUE);
+
+        var first = cropPng.crop(TEST_IMAGE_BYTES[0], 0, 0, 8, 8, 2, sut);
+        var second = cropPng.crop(TEST_IMAGE_BYTES[0], 0, 0, 8, 8, 2, sut);
+        var other = cropPng.crop(TEST_IMAGE_BYTES[0], 0, 0, 8, 8, 3, sut);
+
+        assertThat(toBytes(second)).containsExactly(toBytes(first));
+        assertThat(toBytes(other)).isNotEqualTo(toBytes(first));
+        assertThat(sut.numHits()).isEqualTo(1);
+        assertThat(sut.numMisses()).isEqualTo(2);
+        assertThat(sut.size()).isEqualTo(2);
+    }
+
+    @Test
+    void testEviction() {
+        var cropPng = new CropPng();
+        var unbounded = new TileCache(Long.MAX_VALUE);
+        var sizes = new long[4];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = cropPng.crop(TEST_IMAGE_BYTES[0], 0, 0, 16, 16, i + 1, unbounded).remaining();
+        }
+
+        // Only the last two images fit in the cache.
+        long maxBytes = sizes[sizes.length - 1] + sizes[sizes.length - 2];
+        var sut = new TileCache(maxBytes);
+        for (int i = 0; i < sizes.length; i++) {
+            cropPng.crop(TEST_IMAGE_BYTES[0], 0, 0, 16, 16, i + 1, sut);
+        }
+
+        assertThat(sut.size()).isEqualTo(2);
+        assertThat(sut.totalBytes()).isLessThanOrEqualTo(maxBytes);
+    }
+
+    private static byte[] toBytes(ByteBuffer buf) {
+        return Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.limit());
+    }
+}
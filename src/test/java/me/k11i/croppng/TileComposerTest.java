@@ -0,0 +1,130 @@
+package me.k11i.croppng;
+
+import ar.com.hjg.pngj.PngReaderByte;
+import me.k11i.croppng.test.helper.TestImage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TileComposerTest {
+    private static final TestImage TEST_IMAGE = TestImage.SOCIAL;
+    private static final byte[][] TEST_IMAGE_BYTES = TEST_IMAGE.loadImages();
+
+    @Test
+    void testComposingTilesOfSharedPalette() {
+        var src = TEST_IMAGE_BYTES[1];
+        var tiles = List.of(
+                new Tile(src, 0, 0, 30, 20, 2, 0, 0),
+                new Tile(src, 100, 50, 40, 40, 1, 60, 0),
+                new Tile(src, 10, 10, 20, 10, 3, 0, 40));
+        var result = toBytes(new CropPng().compose(100, 70, 0xff00_0000, tiles));
+
+        var composed = decodeIndexed(result);
+        var source = decodeIndexed(src);
+        for (var tile : tiles) {
+            for (int y = tile.dstY; y < tile.dstBottom(); y++) {
+                for (int x = tile.dstX; x < tile.dstRight(); x++) {
+                    int srcX = tile.x + (x - tile.dstX) / tile.scaleFactor;
+                    int srcY = tile.y + (y - tile.dstY) / tile.scaleFactor;
+                    assertThat(composed[y * 100 + x])
+                            .describedAs("%s at (%d, %d)", tile, x, y)
+                            .isEqualTo(source[srcY * TEST_IMAGE.width + srcX]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testComposingTilesOfDifferentPalettes() {
+        var r = new SplittableRandom(1);
+        var gradient = TestImage.GRADIENT.loadImages()[0];
+        var social = TEST_IMAGE_BYTES[0];
+
+        var tiles = List.of(
+                new Tile(gradient, r.nextInt(78), r.nextInt(18), 50, 50, 1, 0, 0),
+                new Tile(social, r.nextInt(475), r.nextInt(475), 25, 25, 2, 40, 30),
+                new Tile(gradient, r.nextInt(118), r.nextInt(58), 10, 10, 1, 100, 90));
+        var result = toBytes(new CropPng().compose(120, 100, 0xffff_ffff, tiles));
+
+        var composed = decodeArgb(result);
+        var gradientArgb = decodeArgb(gradient);
+        var socialArgb = decodeArgb(social);
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 120; x++) {
+                int expected = 0xffff_ffff;
+                for (var tile : tiles) {
+                    if (tile.dstX <= x && x < tile.dstRight() && tile.dstY <= y && y < tile.dstBottom()) {
+                        int srcX = tile.x + (x - tile.dstX) / tile.scaleFactor;
+                        int srcY = tile.y + (y - tile.dstY) / tile.scaleFactor;
+                        expected = tile.src == gradient
+                                ? gradientArgb[srcY * TestImage.GRADIENT.width + srcX]
+                                : socialArgb[srcY * TEST_IMAGE.width + srcX];
+                    }
+                }
+                assertThat(composed[y * 120 + x]).describedAs("(%d, %d)", x, y).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    void testLimitsOfCanvas() {
+        var tiles = List.of(new Tile(TEST_IMAGE_BYTES[0], 0, 0, 8, 8, 1, 0, 0));
+        var sut = new CropPng(6, new CropLimits(10_000, 100_000, 100_000));
+
+        assertThat(sut.compose(100, 100, 0xff00_0000, tiles).remaining()).isPositive();
+        assertThatThrownBy(() -> sut.compose(30000, 30000, 0xff00_0000, tiles))
+                .isInstanceOf(CropLimitExceededException.class);
+        assertThatThrownBy(() -> sut.compose(101, 100, 0xff00_0000, tiles))
+                .isInstanceOf(CropLimitExceededException.class);
+    }
+
+    @Test
+    void testTileOutsideCanvas() {
+        var tiles = List.of(new Tile(TEST_IMAGE_BYTES[0], 0, 0, 10, 10, 2, 5, 0));
+
+        assertThatThrownBy(() -> new CropPng().compose(20, 20, 0, tiles))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static byte[] decodeIndexed(byte[] png) {
+        var reader = new PngReaderByte(new ByteArrayInputStream(png));
+        var result = new byte[reader.imgInfo.cols * reader.imgInfo.rows];
+
+        for (var i = 0; i < reader.imgInfo.rows; i++) {
+            var scanline = reader.readRowByte().getScanline();
+            System.arraycopy(scanline, 0, result, reader.imgInfo.cols * i, reader.imgInfo.cols);
+        }
+
+        return result;
+    }
+
+    private static int[] decodeArgb(byte[] png) {
+        var reader = new PngReaderByte(new ByteArrayInputStream(png));
+        var plte = reader.getMetadata().getPLTE();
+        var trns = reader.getMetadata().getTRNS();
+        var alpha = trns != null ? trns.getPalletteAlpha() : new int[0];
+        var result = new int[reader.imgInfo.cols * reader.imgInfo.rows];
+
+        for (var i = 0; i < reader.imgInfo.rows; i++) {
+            var scanline = reader.readRowByte().getScanline();
+            for (var j = 0; j < reader.imgInfo.cols; j++) {
+                int index = scanline[j] & 0xff;
+                int a = index < alpha.length ? alpha[index] : 0xff;
+                result[reader.imgInfo.cols * i + j] = (a << 24) | plte.getEntry(index);
+            }
+        }
+
+        return result;
+    }
+
+    private static byte[] toBytes(ByteBuffer buf) {
+        return Arrays.copyOfRange(buf.array(), buf.arrayOffset(), buf.limit());
+    }
+}
@@ -38,6 +38,13 @@ public enum TestImage {
         this.height = height;
     }
 
+    /**
+     * Loads the animated PNG (APNG) test image, which has 4 frames of 64x48 palette image.
+     */
+    public static byte[] loadAnimatedImage() {
+        return load("animated.png");
+    }
+
     public byte[][] loadImages() {
         var filenamePrefix = name().toLowerCase(Locale.ENGLISH);
         return IntStream.rangeClosed(0, 4)